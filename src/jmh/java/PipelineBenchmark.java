@@ -0,0 +1,207 @@
+/**
+ * Benchmark of the Grid_Ruler pipeline
+ *
+ * Description: Stages of the analysis of one image on synthetic chamber images (ChamberImageGenerator), timed by JMH
+ * (benchmark.StageBenchmark): profile projection, grid detection, the check of a cached grid (GridCache) that replaces
+ * both of them, masking and cropping, binarization with morphology, particle counting and writing of results. Every
+ * stage runs on the output of the previous one, prepared before timing, so stages can be compared between versions one
+ * by one. Every call takes the next image of the series, results are the average time per image.
+ * mvn test-compile exec:exec -Dbenchmark="[images=8] [warmup=5] [rounds=15] [forks=1] [stage=masking] [threads=1]
+ * [width=1600] [height=1400] [spacing=120] [style=burker|neubauer] [noise=6] [rotation=0] [particles=3]
+ * [framing=random|fixed] [seed=1] [grid=100] [squares=4] [min=4] [max=9]"
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.Macro;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+public class PipelineBenchmark implements benchmark.Stages {
+    // Options of the command line passed to the parametres of StageBenchmark
+    private static final String[] PARAMS = {"images", "threads", "width", "height", "spacing", "style", "noise",
+        "rotation", "particles", "framing", "seed", "grid", "squares", "min", "max"};
+
+    private int images = 8;
+    private int threads = 1; // threads for the projection of one image
+    private final AnalysisSettings settings;
+    private final ChamberImageGenerator generator = new ChamberImageGenerator();
+    private long seed = 1;
+
+    // Inputs of the stages, one per image
+    private byte[][] gray;
+    private Projection[] projections;
+    private GridDetector.Grid[] grids;
+    private ByteProcessor[] masked;
+    private ByteProcessor[] binary;
+    private double[] minSize, maxSize; // particle size limits in pixels
+    private ImageResult[] results;
+    private final Binarizer binarizer = new Binarizer();
+    private final ParticleCounter counter = new ParticleCounter();
+    private final GridCache gridCache = new GridCache();
+    private int next = 0; // image of the next call
+
+    private File folder; // output of the writing stage
+    private ResultsWriter writer;
+    private long written = 0; // results written in the iteration
+
+    public PipelineBenchmark(String options) {
+        settings = AnalysisSettings.fromOptions(options);
+        if (Macro.getValue(options, "grid", null) == null) {
+            settings.grid_size = 100;
+        }
+        settings.saveRois = true;
+        images = (int) AnalysisSettings.number(options, "images", images);
+        threads = (int) AnalysisSettings.number(options, "threads", threads);
+        generator.width = (int) AnalysisSettings.number(options, "width", generator.width);
+        generator.height = (int) AnalysisSettings.number(options, "height", generator.height);
+        generator.spacing = (int) AnalysisSettings.number(options, "spacing", generator.spacing);
+        generator.noise = AnalysisSettings.number(options, "noise", generator.noise);
+        generator.rotation = AnalysisSettings.number(options, "rotation", generator.rotation);
+        generator.particles = (int) AnalysisSettings.number(options, "particles", generator.particles);
+        seed = (long) AnalysisSettings.number(options, "seed", seed);
+        generator.fixedFraming = "fixed".equalsIgnoreCase(Macro.getValue(options, "framing", "random"));
+        if ("neubauer".equalsIgnoreCase(Macro.getValue(options, "style", "burker"))) {
+            generator.style = ChamberImageGenerator.NEUBAUER;
+        }
+        prepare();
+    }
+
+    private void prepare() {
+        gray = new byte[images][];
+        projections = new Projection[images];
+        grids = new GridDetector.Grid[images];
+        masked = new ByteProcessor[images];
+        binary = new ByteProcessor[images];
+        results = new ImageResult[images];
+        minSize = new double[images];
+        maxSize = new double[images];
+        int width = generator.width;
+        int height = generator.height;
+        for (int i = 0; i < images; i++) {
+            ColorProcessor original = generator.generate(seed, i);
+            ImageProcessor converted = original.convertToByte(true);
+            gray[i] = (byte[]) converted.getPixels();
+            projections[i] = Projection.of(gray[i], width, height, threads);
+            grids[i] = GridDetector.detect(projections[i].rowColors, projections[i].colColors, settings.num_squares);
+            if (grids[i] == null) {
+                throw new IllegalStateException("No grid recognised in the generated image " + i + ", check the settings");
+            }
+            masked[i] = GridMask.maskedCrop(gray[i], width, 0, 0, grids[i], converted.getColorModel());
+            binary[i] = binarizer.binarize(masked[i]);
+            double unit_size = (double) settings.grid_size / Math.min(masked[i].getWidth(), masked[i].getHeight());
+            double sizer_coef = unit_size * unit_size;
+            minSize[i] = (0.5 * settings.size_of_par_min) * (0.5 * settings.size_of_par_min) * 3 / sizer_coef;
+            maxSize[i] = (0.5 * settings.size_of_par_max) * (0.5 * settings.size_of_par_max) * 3 / sizer_coef;
+            ParticleCounter.Particles particles = counter.count(binary[i], minSize[i], maxSize[i], 0.2, 1.0, true);
+            ImageResult result = new ImageResult(String.format("chamber_%04d.tiff", i));
+            result.gridFound = true;
+            result.count = particles.count;
+            result.rois = particles.rois;
+            result.area = particles.area;
+            result.x = new double[particles.count];
+            result.y = new double[particles.count];
+            for (int p = 0; p < particles.count; p++) {
+                result.x[p] = particles.xBase[p];
+                result.y[p] = particles.yBase[p];
+            }
+            results[i] = result;
+        }
+        gridCache.put(width, height, grids[0]);
+    }
+
+    private int next() {
+        int i = next;
+        next = (next + 1) % images;
+        return i;
+    }
+
+    public Object projection() {
+        return Projection.of(gray[next()], generator.width, generator.height, threads);
+    }
+
+    public Object detection() {
+        Projection projection = projections[next()];
+        return GridDetector.detect(projection.rowColors, projection.colColors, settings.num_squares);
+    }
+
+    public Object gridCache() {
+        return gridCache.lookup(gray[next()], generator.width, generator.height);
+    }
+
+    public Object masking() {
+        int i = next();
+        return GridMask.maskedCrop(gray[i], generator.width, 0, 0, grids[i], null);
+    }
+
+    public Object binarization() {
+        return binarizer.binarize(masked[next()]);
+    }
+
+    public Object counting() {
+        int i = next();
+        return counter.count(binary[i], minSize[i], maxSize[i], 0.2, 1.0, settings.saveRois);
+    }
+
+    // Results are appended to the files of the iteration, as in a batch
+    public void openResults() throws IOException {
+        folder = Files.createTempDirectory("gridruler-benchmark").toFile();
+        writer = new ResultsWriter(folder.getPath(), folder.getPath());
+        written = 0;
+    }
+
+    // Every call writes a new file name, entries of the ROI archive must be unique
+    public Object writing() {
+        ImageResult image = results[next()];
+        ImageResult result = new ImageResult("chamber_" + written++ + ".tiff");
+        result.gridFound = true;
+        result.count = image.count;
+        result.rois = image.rois;
+        result.area = image.area;
+        result.x = image.x;
+        result.y = image.y;
+        if (!writer.write(result)) {
+            throw new IllegalStateException("Results not written");
+        }
+        return result;
+    }
+
+    public void closeResults() {
+        writer.close();
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    // Runs StageBenchmark with the options of the command line, stage= selects stages by a regular expression
+    public static void main(String[] args) throws RunnerException {
+        String options = String.join(" ", args);
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .include("benchmark\\.StageBenchmark\\.(" + Macro.getValue(options, "stage", "\\w+") + ")$")
+                .warmupIterations((int) AnalysisSettings.number(options, "warmup", 5))
+                .measurementIterations((int) AnalysisSettings.number(options, "rounds", 15))
+                .forks((int) AnalysisSettings.number(options, "forks", 1));
+        for (String key : PARAMS) {
+            String value = Macro.getValue(options, key, null);
+            if (value != null) {
+                builder.param(key, value);
+            }
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * JMH benchmark of the Grid_Ruler pipeline
+ *
+ * Description: Average time per image of every stage of PipelineBenchmark (projection, detection, grid cache, masking,
+ * binarization, counting, writing). The parametres are the options of PipelineBenchmark, images are generated once
+ * per fork before the warmup. Started by PipelineBenchmark.main or by the JMH runner, e.g.
+ * java -cp ... org.openjdk.jmh.Main StageBenchmark.masking -p style=neubauer
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+package benchmark;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 15, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StageBenchmark {
+    @Param("8") String images;
+    @Param("1") String threads; // threads for the projection of one image
+    @Param("1600") String width;
+    @Param("1400") String height;
+    @Param("120") String spacing;
+    @Param("burker") String style;
+    @Param("6") String noise;
+    @Param("0") String rotation;
+    @Param("3") String particles;
+    @Param("random") String framing;
+    @Param("1") String seed;
+    @Param("100") String grid;
+    @Param("4") String squares;
+    @Param("4") String min;
+    @Param("9") String max;
+
+    private Stages stages;
+
+    @Setup(Level.Trial)
+    public void prepare() throws ReflectiveOperationException {
+        String options = "images=" + images + " threads=" + threads + " width=" + width + " height=" + height
+                + " spacing=" + spacing + " style=" + style + " noise=" + noise + " rotation=" + rotation
+                + " particles=" + particles + " framing=" + framing + " seed=" + seed + " grid=" + grid
+                + " squares=" + squares + " min=" + min + " max=" + max;
+        try {
+            stages = (Stages) Class.forName("PipelineBenchmark").getConstructor(String.class).newInstance(options);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void openResults() throws IOException {
+        stages.openResults();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeResults() {
+        stages.closeResults();
+    }
+
+    @Benchmark
+    public Object projection() {
+        return stages.projection();
+    }
+
+    @Benchmark
+    public Object detection() {
+        return stages.detection();
+    }
+
+    @Benchmark
+    public Object gridCache() {
+        return stages.gridCache();
+    }
+
+    @Benchmark
+    public Object masking() {
+        return stages.masking();
+    }
+
+    @Benchmark
+    public Object binarization() {
+        return stages.binarization();
+    }
+
+    @Benchmark
+    public Object counting() {
+        return stages.counting();
+    }
+
+    @Benchmark
+    public Object writing() {
+        return stages.writing();
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Stages of the Grid_Ruler pipeline timed by StageBenchmark
+ *
+ * Description: The classes of the plugin are in the default package, which JMH does not accept for benchmarks and
+ * which cannot be imported from a package. PipelineBenchmark prepares the images and runs the stages next to the
+ * plugin classes, StageBenchmark calls it through this interface. Every call takes the next image of the series.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+package benchmark;
+
+import java.io.IOException;
+
+
+public interface Stages {
+    Object projection();
+
+    Object detection();
+
+    Object gridCache();
+
+    Object masking();
+
+    Object binarization();
+
+    Object counting();
+
+    // Output folder of the writing stage, a new one for every iteration
+    void openResults() throws IOException;
+
+    Object writing();
+
+    void closeResults();
+}
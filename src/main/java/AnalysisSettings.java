@@ -0,0 +1,76 @@
+/**
+ * Settings of one Grid_Ruler run
+ *
+ * Description: Parameters entered in the plugin dialog, or given as macro/command line options when running headless.
+ * One instance is shared (read only) by all workers of a batch.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.Macro;
+import ij.Prefs;
+
+
+class AnalysisSettings {
+    int num_squares = 4; // Number of square in grid in one direction
+    int grid_size = 0; //size of grid in one direction in real units
+    double size_of_par_min = 4; //minimum size of searched particles in real units
+    double size_of_par_max = 9;//maximum size of searched particles in real units
+    boolean saveBinaryImage = false;
+    boolean saveCroppedImage = false;
+    boolean saveCropped_orginal = true;
+    boolean saveRois = true; // outlines of particles into log.zip
+    boolean reuseGrid = false; // grid of a previous image of the same size is used when its lines are found again
+    String selectedFormat = "tiff";
+    int threads = Prefs.getThreads(); // Number of images analysed at the same time
+    double mappedSize = 256; // TIFF files of this size in MB and larger are read through a memory mapping (MappedTiff)
+    boolean watch = false; // new images of the folder are analysed until stopped (FolderWatcher)
+    double settle = 2; // seconds a new file must stay unchanged before it is analysed
+    double idle = 0; // minutes without a new image before watching stops, 0 until stopped
+
+    // Options in the form "grid=100 squares=4 min=4 max=9 format=tiff threads=8 mapped=256 settle=2 idle=0 save_original save_grayscale save_binary save_rois reuse_grid watch"
+    static AnalysisSettings fromOptions(String options) {
+        AnalysisSettings settings = new AnalysisSettings();
+        settings.grid_size = (int) number(options, "grid", settings.grid_size);
+        settings.num_squares = (int) number(options, "squares", settings.num_squares);
+        settings.size_of_par_min = number(options, "min", settings.size_of_par_min);
+        settings.size_of_par_max = number(options, "max", settings.size_of_par_max);
+        settings.saveCropped_orginal = flag(options, "save_original");
+        settings.saveCroppedImage = flag(options, "save_grayscale");
+        settings.saveBinaryImage = flag(options, "save_binary");
+        settings.saveRois = flag(options, "save_rois");
+        settings.reuseGrid = flag(options, "reuse_grid");
+        settings.selectedFormat = Macro.getValue(options, "format", settings.selectedFormat);
+        settings.threads = (int) number(options, "threads", settings.threads);
+        settings.mappedSize = number(options, "mapped", settings.mappedSize);
+        settings.watch = flag(options, "watch");
+        settings.settle = number(options, "settle", settings.settle);
+        settings.idle = number(options, "idle", settings.idle);
+        return settings;
+    }
+
+    // Parametres that change the results of an image, results are reused only for the same signature
+    String signature() {
+        return "grid=" + grid_size + " squares=" + num_squares + " min=" + size_of_par_min + " max=" + size_of_par_max
+                + " format=" + selectedFormat + " rois=" + saveRois + " reuse_grid=" + reuseGrid;
+    }
+
+    static double number(String options, String key, double defaultValue) {
+        String value = Macro.getValue(options, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value of " + key + ": " + value);
+        }
+    }
+
+    // Check boxes are written as their key alone, as in ImageJ macros
+    static boolean flag(String options, String key) {
+        return (" " + options + " ").contains(" " + key + " ");
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Batch processing of a folder for Grid_Ruler
+ *
+ * Description: Runs ImageAnalysis over the list of files on a pool of workers. Every worker owns its own ImageAnalysis.
+ * Results are merged in the order of the file list, so the output files are the same for every number of threads.
+ * Images recorded in the manifest as unchanged are not analysed, their results are merged from the previous run.
+ * Time and allocation of the steps of every analysed image are written by RunStatistics. In watch mode the images
+ * given by FolderWatcher follow the files of the folder, their results are appended as soon as they are analysed.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.IJ;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+class BatchRunner {
+    private final AnalysisSettings settings;
+    private final String folderPath;
+    private final String Result_folder;
+    private final ThreadLocal<ImageAnalysis> analysis; // per-worker analysis context
+    private final GridCache gridCache; // grids found in this batch, or null
+
+    private final RunManifest manifest;
+    private ResultsWriter results;
+    private final RunStatistics statistics;
+    private boolean complete = true; // false when results of an image could not be written
+    private long maxImageBytes = 0; // largest per-image allocation of pixel arrays
+    private ExecutorService pool;
+    private int maxPending;
+    private final Deque<Future<ImageResult>> pending = new ArrayDeque<Future<ImageResult>>();
+    private final Deque<File> pendingFiles = new ArrayDeque<File>();
+
+    BatchRunner(final AnalysisSettings settings, String folderPath, final String Result_folder) {
+        this.settings = settings;
+        this.folderPath = folderPath;
+        this.Result_folder = Result_folder;
+        this.manifest = new RunManifest(Result_folder, settings.signature());
+        this.statistics = new RunStatistics(Result_folder);
+        this.gridCache = settings.reuseGrid ? new GridCache() : null;
+        this.analysis = ThreadLocal.withInitial(() -> new ImageAnalysis(settings, Result_folder, gridCache));
+    }
+
+    void run(List<File> files) {
+        run(files, null);
+    }
+
+    // Analyses the files, then the images given by the watcher until it stops
+    void run(List<File> files, FolderWatcher watcher) {
+        long start = System.nanoTime();
+        // Unchanged images analysed before with the same parametres are taken from the manifest
+        List<ImageResult> cached = new ArrayList<ImageResult>(files.size());
+        int reused = 0;
+        for (File file : files) {
+            ImageResult result = manifest.cached(file);
+            cached.add(result);
+            if (result != null) {
+                reused++;
+            }
+        }
+        PreviousResults previous = null;
+        try {
+            previous = new PreviousResults(folderPath, Result_folder, reused > 0);
+        } catch (IOException e) {
+            IJ.log("Unable to read previous results, all images are analysed: " + e.getMessage());
+            Collections.fill(cached, null);
+            reused = 0;
+        }
+        // Images whose rows, ROIs or requested image files are no longer in the previous outputs are analysed again
+        int missing = 0;
+        for (int i = 0; i < cached.size(); i++) {
+            if (cached.get(i) != null && (!previous.holds(cached.get(i), settings.saveRois) || !imagesSaved(cached.get(i)))) {
+                cached.set(i, null);
+                reused--;
+                missing++;
+            }
+        }
+        if (missing > 0) {
+            IJ.log(missing + " unchanged images analysed again, their results or image files are missing");
+        }
+        if (reused > 0) {
+            IJ.log(reused + " of " + files.size() + " images unchanged, results taken from the previous run");
+        }
+        results = new ResultsWriter(folderPath, Result_folder, previous);
+
+        int threads = Math.max(1, settings.threads);
+        maxPending = threads * 2; // images decoded ahead of the merge, keeps memory bounded
+        pool = Executors.newFixedThreadPool(threads);
+        boolean completed = false;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                submit(files.get(i), cached.get(i));
+            }
+            if (watcher != null) {
+                // New images are analysed as they come, finished results are written without waiting for more
+                while (!watcher.isStopped() && !Thread.currentThread().isInterrupted()) {
+                    File file = watcher.poll(100);
+                    if (file != null) {
+                        submit(file, null);
+                    }
+                    while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+                        merge(pendingFiles.removeFirst(), pending.removeFirst());
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                merge(pendingFiles.removeFirst(), pending.removeFirst());
+            }
+            int inFlight = watcher != null ? maxPending : Math.min(maxPending, files.size());
+            if (maxImageBytes > 0) {
+                IJ.log("Image buffers: " + IJ.d2s(maxImageBytes / 1048576.0, 1) + " MB per image at most, "
+                        + IJ.d2s(maxImageBytes * inFlight / 1048576.0, 1) + " MB with " + inFlight + " images in flight");
+            }
+            if (gridCache != null && gridCache.hits.get() > 0) {
+                IJ.log("Grid of a previous image reused for " + gridCache.hits.get() + " of "
+                        + (gridCache.hits.get() + gridCache.misses.get()) + " images");
+            }
+            statistics.summarize(System.nanoTime() - start);
+            completed = complete && !Thread.currentThread().isInterrupted();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+            results.close();
+            manifest.close();
+            statistics.close();
+            if (previous != null && completed) {
+                previous.delete(); // everything was copied into the new outputs
+            } else if (previous != null) {
+                previous.close(); // kept for the next run
+            }
+            if (watcher != null) {
+                watcher.close();
+            }
+        }
+    }
+
+    // True when the image files asked for in this run were saved for the image
+    private boolean imagesSaved(ImageResult result) {
+        if (!result.gridFound) {
+            return true; // no image is saved without a grid
+        }
+        String NameOfFile = result.NameOfFile;
+        return (!settings.saveBinaryImage || new File(Result_folder, "binary_" + NameOfFile).isFile())
+                && (!settings.saveCroppedImage || new File(Result_folder, "grayscale_" + NameOfFile).isFile())
+                && (!settings.saveCropped_orginal || new File(Result_folder, "cropped_original_" + NameOfFile).isFile());
+    }
+
+    // Queues the analysis of an image, or its result taken from the manifest
+    private void submit(final File file, ImageResult cached) {
+        if (pending.size() >= maxPending) {
+            merge(pendingFiles.removeFirst(), pending.removeFirst());
+        }
+        pendingFiles.addLast(file);
+        if (cached != null) {
+            pending.addLast(CompletableFuture.completedFuture(cached));
+            return;
+        }
+        pending.addLast(pool.submit(() -> {
+            IJ.log("Processing file: " + file.getName());
+            return analysis.get().analyze(file);
+        }));
+    }
+
+    // Waits for the result of one image, adds it to the output files and to the manifest
+    private void merge(File file, Future<ImageResult> future) {
+        ImageResult result;
+        try {
+            result = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            IJ.handleException(e.getCause());
+            return;
+        }
+        maxImageBytes = Math.max(maxImageBytes, result.imageBytes);
+        if (result.timer != null) {
+            result.timer.mark(); // the results are written on this thread
+        }
+        if (!results.write(result)) {
+            complete = false;
+        } else if (!result.cached) {
+            manifest.add(file, result);
+        }
+        if (result.timer != null) {
+            result.timer.lap(StageTimer.RESULTS);
+            statistics.add(result);
+        }
+    }
+}
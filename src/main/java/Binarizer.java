@@ -0,0 +1,198 @@
+/**
+ * Binarization and pre-processing of objects for Grid_Ruler
+ *
+ * Description: Steps 11-12 done directly on the pixel arrays of the cropped image: MaxEntropy threshold from the histogram,
+ * conversion to mask, Dilate, Fill Holes, Watershed and Erode. The result is the same mask as
+ * IJ.setAutoThreshold(imp, "MaxEntropy") followed by the "Convert to Mask", "Dilate", "Fill Holes", "Watershed" and "Erode"
+ * commands, without going through the command dispatcher. Scratch buffers are kept between images,
+ * every worker uses its own instance.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.Prefs;
+import ij.plugin.filter.EDM;
+import ij.process.AutoThresholder;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.util.Arrays;
+
+
+class Binarizer {
+    private static final int FOREGROUND = 255; // particles after "Convert to Mask", for white and for black background
+    private static final int BACKGROUND = 0;
+    private static final int FILLED = 127; // background connected to the edge of the image while filling holes
+
+    private final AutoThresholder thresholder = new AutoThresholder();
+    private final int[] histogram = new int[256];
+    private byte[] copy = new byte[0]; // previous state of the mask for dilate and erode
+    private int[] stack = new int[0]; // flood fill stack
+
+    // Returns the binary mask of the 8-bit image, particles are 255
+    ByteProcessor binarize(ImageProcessor gray) {
+        return preprocess(threshold(gray));
+    }
+
+    // Step 11: mask of the 8-bit image thresholded with MaxEntropy, particles are 255
+    ByteProcessor threshold(ImageProcessor gray) {
+        int width = gray.getWidth();
+        int height = gray.getHeight();
+        byte[] pixels = (byte[]) gray.getPixels();
+        int n = width * height;
+        Arrays.fill(histogram, 0);
+        for (int i = 0; i < n; i++) {
+            histogram[pixels[i] & 0xff]++;
+        }
+        int threshold = thresholder.getThreshold(AutoThresholder.Method.MaxEntropy, histogram);
+        int lower = 0;
+        int upper = threshold;
+        if (gray.isInvertedLut()) {
+            lower = Math.min(threshold + 1, 255);
+            upper = 255;
+        }
+        byte[] mask = new byte[n];
+        for (int i = 0; i < n; i++) {
+            int value = pixels[i] & 0xff;
+            mask[i] = (byte) (value >= lower && value <= upper ? FOREGROUND : BACKGROUND);
+        }
+        return new ByteProcessor(width, height, mask);
+    }
+
+    // Step 12: Dilate, Fill Holes, Watershed and Erode of the mask, done in place
+    ByteProcessor preprocess(ByteProcessor binary) {
+        int width = binary.getWidth();
+        int height = binary.getHeight();
+        byte[] mask = (byte[]) binary.getPixels();
+        int count = Math.max(1, Math.min(8, (int) Prefs.get("binary.count", 1))); // Process>Binary>Options
+        dilate(mask, width, height, count);
+        fillHoles(mask, width, height);
+        new EDM().toWatershed(binary); // EDM keeps buffers sized for one image, one instance per image
+        erode(mask, width, height, count);
+
+        if (!Prefs.blackBackground) {
+            binary.invertLut(); // particles displayed black, as after "Convert to Mask"
+        }
+        binary.setThreshold(FOREGROUND, FOREGROUND, ImageProcessor.NO_LUT_UPDATE); // invisible threshold of binary images
+        return binary;
+    }
+
+    // Background pixel becomes foreground when at least count of its 8 neighbours are foreground
+    private void dilate(byte[] mask, int width, int height, int count) {
+        byte[] src = snapshot(mask);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = x + y * width;
+                if ((src[i] & 0xff) != FOREGROUND) {
+                    mask[i] = (byte) (neighbours(src, width, height, x, y, FOREGROUND, BACKGROUND) >= count ? FOREGROUND : BACKGROUND);
+                }
+            }
+        }
+    }
+
+    // Foreground pixel becomes background when at least count of its 8 neighbours are background
+    private void erode(byte[] mask, int width, int height, int count) {
+        byte[] src = snapshot(mask);
+        int outside = Prefs.padEdges ? FOREGROUND : BACKGROUND;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = x + y * width;
+                if ((src[i] & 0xff) != BACKGROUND) {
+                    mask[i] = (byte) (neighbours(src, width, height, x, y, BACKGROUND, outside) >= count ? BACKGROUND : FOREGROUND);
+                }
+            }
+        }
+    }
+
+    // Number of the 8 neighbours of (x, y) with the given value, pixels outside of the image have the value outside
+    private static int neighbours(byte[] src, int width, int height, int x, int y, int value, int outside) {
+        int n = 0;
+        if (x > 0 && y > 0 && x < width - 1 && y < height - 1) {
+            int i = x + y * width;
+            if ((src[i - width - 1] & 0xff) == value) n++;
+            if ((src[i - width] & 0xff) == value) n++;
+            if ((src[i - width + 1] & 0xff) == value) n++;
+            if ((src[i - 1] & 0xff) == value) n++;
+            if ((src[i + 1] & 0xff) == value) n++;
+            if ((src[i + width - 1] & 0xff) == value) n++;
+            if ((src[i + width] & 0xff) == value) n++;
+            if ((src[i + width + 1] & 0xff) == value) n++;
+            return n;
+        }
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (dx == 0 && dy == 0) {
+                    continue;
+                }
+                int xx = x + dx;
+                int yy = y + dy;
+                int v = xx < 0 || yy < 0 || xx >= width || yy >= height ? outside : src[xx + yy * width] & 0xff;
+                if (v == value) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    // Binary fill: background not connected (4-connected) to the edge of the image becomes foreground
+    private void fillHoles(byte[] mask, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            fill(mask, width, height, 0, y);
+            fill(mask, width, height, width - 1, y);
+        }
+        for (int x = 0; x < width; x++) {
+            fill(mask, width, height, x, 0);
+            fill(mask, width, height, x, height - 1);
+        }
+        int n = width * height;
+        for (int i = 0; i < n; i++) {
+            mask[i] = (byte) (mask[i] == FILLED ? BACKGROUND : FOREGROUND);
+        }
+    }
+
+    private void fill(byte[] mask, int width, int height, int x0, int y0) {
+        if (mask[x0 + y0 * width] != BACKGROUND) {
+            return;
+        }
+        int size = 0;
+        if (stack.length < 64) {
+            stack = new int[64];
+        }
+        mask[x0 + y0 * width] = FILLED;
+        stack[size++] = x0 + y0 * width;
+        while (size > 0) {
+            int i = stack[--size];
+            int x = i % width;
+            int y = i / width;
+            if (stack.length < size + 4) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            if (x > 0 && mask[i - 1] == BACKGROUND) {
+                mask[i - 1] = FILLED;
+                stack[size++] = i - 1;
+            }
+            if (x < width - 1 && mask[i + 1] == BACKGROUND) {
+                mask[i + 1] = FILLED;
+                stack[size++] = i + 1;
+            }
+            if (y > 0 && mask[i - width] == BACKGROUND) {
+                mask[i - width] = FILLED;
+                stack[size++] = i - width;
+            }
+            if (y < height - 1 && mask[i + width] == BACKGROUND) {
+                mask[i + width] = FILLED;
+                stack[size++] = i + width;
+            }
+        }
+    }
+
+    private byte[] snapshot(byte[] mask) {
+        if (copy.length < mask.length) {
+            copy = new byte[mask.length];
+        }
+        System.arraycopy(mask, 0, copy, 0, mask.length);
+        return copy;
+    }
+}
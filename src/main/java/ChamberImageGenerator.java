@@ -0,0 +1,138 @@
+/**
+ * Synthetic images of counting chambers for Grid_Ruler
+ *
+ * Description: Deterministic generator of Bürker and Neubauer style grid images with dark particles, for benchmarks
+ * and for regression runs without microscope images. The same seed and settings always give the same image.
+ * Run from the command line to fill a folder with images:
+ * java -cp ij.jar:Grid_Ruler.jar ChamberImageGenerator folder count [width=1600] [height=1400] [spacing=120] [style=burker|neubauer]
+ * [noise=6] [rotation=0] [particles=3] [framing=random|fixed] [seed=1]
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.ColorProcessor;
+import java.io.File;
+import java.util.Random;
+
+
+class ChamberImageGenerator {
+    static final int BURKER = 0; // large squares separated by double lines
+    static final int NEUBAUER = 1; // large squares divided into 4 x 4 small squares by thin lines
+
+    int width = 1600;
+    int height = 1400;
+    int spacing = 120; // distance of main grid lines in pixels
+    int lineWidth = 3; // width of main grid lines in pixels
+    int style = BURKER;
+    double noise = 6; // standard deviation of gaussian noise
+    double rotation = 0; // rotation of the grid in degrees
+    boolean fixedFraming = false; // grid at the same place in all images of a series, as in one session
+    int particles = 3; // mean number of particles in one large square
+    int minRadius = 11; // radius of particles in pixels
+    int maxRadius = 17;
+    int background = 205; // color of the chamber
+    int lineColor = 125; // color of grid lines
+    int particleColor = 65; // color of particles
+
+    // Image number index of the series generated from seed
+    ColorProcessor generate(long seed, int index) {
+        Random random = new Random(seed * 1000003L + index);
+        Random framing = fixedFraming ? new Random(seed) : random;
+        int offsetX = spacing / 3 + framing.nextInt(Math.max(1, spacing / 3));
+        int offsetY = spacing / 3 + framing.nextInt(Math.max(1, spacing / 3));
+        double angle = Math.toRadians(rotation);
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double cx = width / 2.0;
+        double cy = height / 2.0;
+
+        ColorProcessor cp = new ColorProcessor(width, height);
+        int[] pixels = (int[]) cp.getPixels();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Coordinates of the pixel in the (unrotated) grid
+                double gx = cos * (x - cx) + sin * (y - cy) + cx - offsetX;
+                double gy = -sin * (x - cx) + cos * (y - cy) + cy - offsetY;
+                double value = gx >= 0 && gy >= 0 && (onLine(gx) || onLine(gy)) ? lineColor : background;
+                value += noise * random.nextGaussian();
+                pixels[y * width + x] = rgb(value);
+            }
+        }
+
+        // Particles: dark discs, about particles per large square
+        int squares = (width / spacing) * (height / spacing);
+        int n = (int) Math.round(squares * particles * (0.8 + 0.4 * random.nextDouble()));
+        for (int p = 0; p < n; p++) {
+            int px = random.nextInt(width);
+            int py = random.nextInt(height);
+            int radius = minRadius + random.nextInt(maxRadius - minRadius + 1);
+            for (int y = Math.max(0, py - radius); y <= Math.min(height - 1, py + radius); y++) {
+                for (int x = Math.max(0, px - radius); x <= Math.min(width - 1, px + radius); x++) {
+                    if ((x - px) * (x - px) + (y - py) * (y - py) <= radius * radius) {
+                        pixels[y * width + x] = rgb(particleColor + noise * random.nextGaussian());
+                    }
+                }
+            }
+        }
+        return cp;
+    }
+
+    // Is the grid coordinate on a line?
+    private boolean onLine(double g) {
+        double inSquare = g % spacing;
+        if (inSquare < lineWidth) {
+            return true;
+        }
+        if (style == BURKER) {
+            return inSquare >= 2 * lineWidth && inSquare < 3 * lineWidth; // second line of the double line
+        }
+        double inSmall = inSquare % (spacing / 4.0);
+        return inSmall < 1.0; // thin lines of small squares
+    }
+
+    // Gray value as a slightly bluish RGB pixel, as in bright field images
+    private static int rgb(double value) {
+        int v = (int) Math.max(0, Math.min(255, Math.round(value)));
+        int b = Math.min(255, v + 8);
+        return (v << 16) | (v << 8) | b;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: ChamberImageGenerator folder count [key=value ...]");
+            System.exit(1);
+        }
+        File folder = new File(args[0]);
+        int count = Integer.parseInt(args[1]);
+        ChamberImageGenerator generator = new ChamberImageGenerator();
+        long seed = 1;
+        for (int i = 2; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Option without value: " + args[i]);
+            }
+            String value = option[1];
+            switch (option[0]) {
+                case "width": generator.width = Integer.parseInt(value); break;
+                case "height": generator.height = Integer.parseInt(value); break;
+                case "spacing": generator.spacing = Integer.parseInt(value); break;
+                case "style": generator.style = value.equalsIgnoreCase("neubauer") ? NEUBAUER : BURKER; break;
+                case "noise": generator.noise = Double.parseDouble(value); break;
+                case "rotation": generator.rotation = Double.parseDouble(value); break;
+                case "particles": generator.particles = Integer.parseInt(value); break;
+                case "framing": generator.fixedFraming = value.equalsIgnoreCase("fixed"); break;
+                case "seed": seed = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("Unknown option: " + option[0]);
+            }
+        }
+        folder.mkdirs();
+        for (int i = 0; i < count; i++) {
+            String name = String.format("chamber_%04d.tiff", i);
+            new FileSaver(new ImagePlus(name, generator.generate(seed, i))).saveAsTiff(new File(folder, name).getPath());
+        }
+    }
+}
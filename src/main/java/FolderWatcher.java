@@ -0,0 +1,234 @@
+/**
+ * Watch mode of Grid_Ruler
+ *
+ * Description: Follows the folder while images are acquired. New files of the selected format are taken once their
+ * size and modification time did not change for settle seconds (the microscope finished writing them) and are put on
+ * a bounded queue, in the order of names when several are ready at once. When BatchRunner does not keep up, the
+ * queue is full and ready files wait in the folder. Watching stops on a file named "stop" created in the folder
+ * (deleted when found), on Esc, after idle minutes without a new image, on an error while watching the folder or when
+ * the JVM is shut down (Ctrl+C); images already queued are still analysed and their results written before the outputs
+ * are closed.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.IJ;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+class FolderWatcher implements Closeable {
+    static final String STOP_FILE = "stop";
+    private static final long TICK = 250; // ms between checks of the folder
+    private static final long SHUTDOWN_WAIT = 10000; // ms the JVM waits at shutdown for the queued images
+
+    private final File folder;
+    private final String selectedFormat;
+    private final long settle; // ms without change before a file is taken
+    private final long idle; // ms without a new image before watching stops, 0 for no limit
+    private final BlockingQueue<File> queue;
+    private final WatchService service;
+    private final Set<String> seen = new HashSet<String>(); // files analysed or queued in this run
+    private final Map<File, long[]> candidates = new HashMap<File, long[]>(); // file -> size, modified, time of the last change
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final Thread hook = new Thread(this::shutdown, "Grid_Ruler shutdown");
+    private volatile boolean stopping = false;
+    private long lastImage;
+    private Thread thread;
+
+    FolderWatcher(AnalysisSettings settings, File folder) throws IOException {
+        this.folder = folder;
+        this.selectedFormat = settings.selectedFormat;
+        this.settle = (long) (settings.settle * 1000);
+        this.idle = (long) (settings.idle * 60000);
+        this.queue = new ArrayBlockingQueue<File>(Math.max(4, settings.threads * 2));
+        this.service = FileSystems.getDefault().newWatchService();
+        folder.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    // Starts watching; returns the images of the folder that are complete, the others are taken once they settle
+    List<File> start(List<File> images) {
+        List<File> complete = new ArrayList<File>();
+        long now = System.currentTimeMillis();
+        for (File file : images) {
+            seen.add(file.getName());
+            if (now - file.lastModified() >= settle) {
+                complete.add(file);
+            } else {
+                candidates.put(file, new long[] {file.length(), file.lastModified(), now});
+            }
+        }
+        lastImage = now;
+        IJ.resetEscape();
+        try {
+            Runtime.getRuntime().addShutdownHook(hook);
+        } catch (IllegalStateException e) {
+            stopping = true; // the JVM is already shutting down
+        }
+        thread = new Thread(this::watch, "Grid_Ruler watcher");
+        thread.setDaemon(true);
+        thread.start();
+        IJ.log("Watching " + folder.getPath() + " for new images, create a file \"" + STOP_FILE + "\" there or press Esc to stop");
+        return complete;
+    }
+
+    // Next image waiting at most timeout ms, or null
+    File poll(long timeout) throws InterruptedException {
+        return queue.poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    // True when no more images are given
+    boolean isStopped() {
+        return stopping && queue.isEmpty();
+    }
+
+    public void close() {
+        stopping = true;
+        try {
+            service.close();
+        } catch (IOException e) {
+            IJ.log("Unable to close the folder watcher: " + e.getMessage());
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException e) {
+            // called while the hook runs
+        }
+        closed.countDown();
+    }
+
+    private void watch() {
+        try {
+            while (!stopping) {
+                WatchKey key = service.poll(TICK, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    events(key);
+                }
+                offer();
+                if (new File(folder, STOP_FILE).exists()) {
+                    new File(folder, STOP_FILE).delete();
+                    IJ.log("Stop file found, watching stopped");
+                    stopping = true;
+                } else if (IJ.escapePressed()) {
+                    IJ.log("Esc pressed, watching stopped");
+                    stopping = true;
+                } else if (idle > 0 && candidates.isEmpty() && System.currentTimeMillis() - lastImage >= idle) {
+                    IJ.log("No new image for " + idle / 1000 + " s, watching stopped");
+                    stopping = true;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // close() was called
+        } catch (RuntimeException e) {
+            IJ.log("Watching stopped on an error: " + e);
+        } finally {
+            stopping = true; // BatchRunner finishes the queued images and closes the outputs
+        }
+    }
+
+    private void events(WatchKey key) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescan(); // events were lost
+                continue;
+            }
+            File file = new File(folder, ((Path) event.context()).toString());
+            if (isImage(file) && !seen.contains(file.getName())) {
+                long now = System.currentTimeMillis();
+                long[] state = candidates.get(file);
+                if (state == null) {
+                    candidates.put(file, new long[] {file.length(), file.lastModified(), now});
+                } else {
+                    state[2] = now;
+                }
+            }
+        }
+        if (!key.reset()) {
+            IJ.log("Folder " + folder.getPath() + " is no longer accessible, watching stopped");
+            stopping = true;
+        }
+    }
+
+    private void rescan() {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (isImage(file) && !seen.contains(file.getName()) && !candidates.containsKey(file)) {
+                candidates.put(file, new long[] {file.length(), file.lastModified(), now});
+            }
+        }
+    }
+
+    // Queues the files that settled, in the order of names, as long as there is room in the queue
+    private void offer() {
+        long now = System.currentTimeMillis();
+        List<File> ready = new ArrayList<File>();
+        for (Map.Entry<File, long[]> candidate : new ArrayList<Map.Entry<File, long[]>>(candidates.entrySet())) {
+            File file = candidate.getKey();
+            long[] state = candidate.getValue();
+            if (!file.isFile()) {
+                candidates.remove(file); // deleted or renamed before it settled
+                continue;
+            }
+            long size = file.length();
+            long modified = file.lastModified();
+            if (size != state[0] || modified != state[1]) {
+                state[0] = size;
+                state[1] = modified;
+                state[2] = now;
+            } else if (size > 0 && now - state[2] >= settle) {
+                ready.add(file);
+            }
+        }
+        Collections.sort(ready);
+        for (File file : ready) {
+            if (!queue.offer(file)) {
+                return; // analysis is behind, the file is queued later
+            }
+            candidates.remove(file);
+            seen.add(file.getName());
+            lastImage = now;
+        }
+    }
+
+    private boolean isImage(File file) {
+        return file.getName().toLowerCase().endsWith(selectedFormat) && file.isFile();
+    }
+
+    // Ctrl+C or kill: no new images, the queued ones are finished while the JVM waits
+    private void shutdown() {
+        stopping = true;
+        try {
+            closed.await(SHUTDOWN_WAIT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
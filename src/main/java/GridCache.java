@@ -0,0 +1,120 @@
+/**
+ * Grid geometry of a session for Grid_Ruler
+ *
+ * Description: Images of one batch are usually taken with the same magnification and framing, so the grid found in one
+ * image is tried first in the next image of the same size. The row and column profiles (Step 3) are computed only in
+ * narrow windows around the cached grid lines inside the selected square; the cached grid is used when every window
+ * has the same lines (higher by more than z than the next row/column) as the cached grid, otherwise Steps 3-8 run on
+ * the whole image. The level z and the squares of the cached grid are kept, so results can differ from a detection in
+ * every image; the cache is used only when asked for (reuse_grid). One instance is shared by all workers of a batch.
+ * With several workers, which of the images detected at the same time provides the cached grid depends on timing.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+class GridCache {
+    private static final int WINDOW = 4; // rows/columns checked on both sides of a cached line
+
+    private final ConcurrentHashMap<String, GridDetector.Grid> grids = new ConcurrentHashMap<String, GridDetector.Grid>();
+    final AtomicInteger hits = new AtomicInteger();
+    final AtomicInteger misses = new AtomicInteger();
+
+    // Cached grid of images of this size when its lines are found in the 8-bit image, or null
+    GridDetector.Grid lookup(byte[] pixels, int width, int height) {
+        GridDetector.Grid grid = grids.get(key(width, height));
+        if (grid != null && rowsMatch(grid, pixels, width, height) && columnsMatch(grid, pixels, width, height)) {
+            hits.incrementAndGet();
+            return grid;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // Grid found by the full detection, tried first for the next images of this size
+    void put(int width, int height, GridDetector.Grid grid) {
+        grids.put(key(width, height), grid);
+    }
+
+    private static String key(int width, int height) {
+        return width + "x" + height;
+    }
+
+    private static boolean rowsMatch(GridDetector.Grid grid, byte[] pixels, int width, int height) {
+        boolean[] window = windows(grid.grid_linesY, grid.selectedY1, grid.selectedY2, height);
+        int[] rowColors = new int[height];
+        for (int row = 0; row < height; row++) {
+            if (needed(window, row)) {
+                rowColors[row] = Projection.rowSum(pixels, row * width, width) / width;
+            }
+        }
+        return linesMatch(grid.grid_linesY, window, rowColors, grid.z);
+    }
+
+    private static boolean columnsMatch(GridDetector.Grid grid, byte[] pixels, int width, int height) {
+        boolean[] window = windows(grid.grid_linesX, grid.selectedX1, grid.selectedX2, width);
+        // Runs of needed columns, every row adds to the sums of the runs only
+        int[] runStart = new int[width];
+        int[] runEnd = new int[width];
+        int runs = 0;
+        for (int col = 0; col < width; col++) {
+            if (needed(window, col)) {
+                if (runs > 0 && runEnd[runs - 1] == col) {
+                    runEnd[runs - 1]++;
+                } else {
+                    runStart[runs] = col;
+                    runEnd[runs++] = col + 1;
+                }
+            }
+        }
+        int[] sums = new int[width]; // int is safe for up to 8M rows
+        for (int row = 0; row < height; row++) {
+            int offset = row * width;
+            for (int run = 0; run < runs; run++) {
+                for (int col = runStart[run]; col < runEnd[run]; col++) {
+                    sums[col] += pixels[offset + col] & 0xff;
+                }
+            }
+        }
+        int[] colColors = new int[width];
+        for (int col = 0; col < width; col++) {
+            colColors[col] = sums[col] / height;
+        }
+        return linesMatch(grid.grid_linesX, window, colColors, grid.z);
+    }
+
+    // Average of a row (column) is needed inside the windows and for the row (column) after them
+    private static boolean needed(boolean[] window, int i) {
+        return window[i] || (i > 0 && window[i - 1]);
+    }
+
+    // Rows (columns) within WINDOW of the cached lines of the selected square, the last one of the image is never a line
+    private static boolean[] windows(int[] lines, int selected1, int selected2, int size) {
+        boolean[] window = new boolean[size];
+        for (int line : lines) {
+            if (line < selected1 || line > selected2) {
+                continue;
+            }
+            for (int i = Math.max(0, line - WINDOW); i <= Math.min(size - 2, line + WINDOW); i++) {
+                window[i] = true;
+            }
+        }
+        return window;
+    }
+
+    // Same lines as in the profile of the whole image: higher by more than z than the next row (column)
+    private static boolean linesMatch(int[] lines, boolean[] window, int[] colors, int z) {
+        for (int i = 0; i < window.length - 1; i++) {
+            if (window[i] && (colors[i] - colors[i + 1] > z) != (Arrays.binarySearch(lines, i) >= 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Grid recognition for Grid_Ruler
+ *
+ * Description: Detection of grid lines and of the square grid from the row and column profiles (Steps 4-8).
+ * Candidate edges are found once together with their contrast (drop of the average color to the next row/column).
+ * A threshold level z keeps the edges with contrast higher than z, levels are evaluated from the lowest
+ * and the first accepted level is returned - the same grid as the last accepted level of the sweep z = 10..2.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import java.util.Arrays;
+
+
+class GridDetector {
+    static final int MAX_LEVEL = 10; // highest contrast threshold
+    static final int MIN_LEVEL = 2; // lowest contrast threshold
+
+    // Selected square grid and the lines of the accepted threshold level
+    static class Grid {
+        final int selectedX1, selectedX2, selectedY1, selectedY2;
+        final int z; // accepted threshold level
+        final int[] grid_linesX; // detected lines X of the level
+        final int[] grid_linesY; // detected lines Y of the level
+
+        Grid(int selectedX1, int selectedX2, int selectedY1, int selectedY2, int z, int[] grid_linesX, int[] grid_linesY) {
+            this.selectedX1 = selectedX1;
+            this.selectedX2 = selectedX2;
+            this.selectedY1 = selectedY1;
+            this.selectedY2 = selectedY2;
+            this.z = z;
+            this.grid_linesX = grid_linesX;
+            this.grid_linesY = grid_linesY;
+        }
+
+        int cropX() {
+            return selectedX2 - selectedX1;
+        }
+
+        int cropY() {
+            return selectedY2 - selectedY1;
+        }
+    }
+
+    // Candidate edges of one profile: position and contrast, in the order of positions
+    private static class Edges {
+        final int[] position;
+        final int[] contrast;
+        final int size;
+
+        Edges(int[] profile) {
+            int n = 0;
+            for (int i = 0; i < profile.length - 1; i++) {
+                if (profile[i] - profile[i + 1] > MIN_LEVEL) {
+                    n++;
+                }
+            }
+            position = new int[n];
+            contrast = new int[n];
+            size = n;
+            n = 0;
+            for (int i = 0; i < profile.length - 1; i++) {
+                int drop = profile[i] - profile[i + 1];
+                if (drop > MIN_LEVEL) {
+                    position[n] = i;
+                    contrast[n] = drop;
+                    n++;
+                }
+            }
+        }
+
+        // Lines that are higher by more than z compared to the next one
+        int[] lines(int z) {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (contrast[i] > z) {
+                    n++;
+                }
+            }
+            int[] lines = new int[n];
+            n = 0;
+            for (int i = 0; i < size; i++) {
+                if (contrast[i] > z) {
+                    lines[n++] = position[i];
+                }
+            }
+            return lines;
+        }
+    }
+
+    private GridDetector() {
+    }
+
+    // Returns the recognised grid or null, num_squares is the number of squares in one direction
+    static Grid detect(int[] rowColors, int[] colColors, int num_squares) {
+        if (num_squares < 1) {
+            return null;
+        }
+        Edges edgesY = new Edges(rowColors);
+        Edges edgesX = new Edges(colColors);
+        int lastLinesX = -1;
+        int lastLinesY = -1;
+        for (int z = MIN_LEVEL; z <= MAX_LEVEL; z++) {
+            //Step 4: Grid lines detection
+            int[] grid_linesY = edgesY.lines(z);
+            int[] grid_linesX = edgesX.lines(z);
+            if (grid_linesY.length < 2 || grid_linesX.length < 2) {
+                return null; // higher levels only have fewer lines
+            }
+            if (grid_linesY.length == lastLinesY && grid_linesX.length == lastLinesX) {
+                continue; // no edge of contrast z, same lines as the previous level
+            }
+            lastLinesY = grid_linesY.length;
+            lastLinesX = grid_linesX.length;
+            Grid grid = evaluate(grid_linesX, grid_linesY, z, num_squares);
+            if (grid != null) {
+                return grid;
+            }
+        }
+        return null;
+    }
+
+    private static Grid evaluate(int[] grid_linesX, int[] grid_linesY, int z, int num_squares) {
+        int[] difX = gaps(grid_linesX);
+        int[] difY = gaps(grid_linesY);
+
+        //Step 5: Recognition of lines making squares - the longest gaps having a pair with ratio 0.8-1.2
+        int[] sortedX = difX.clone();
+        int[] sortedY = difY.clone();
+        Arrays.sort(sortedX);
+        Arrays.sort(sortedY);
+        double maxdifY = 0;
+        for (int difYi : sortedY) {
+            if (difYi > maxdifY && hasPairX(sortedX, difYi)) {
+                maxdifY = difYi;
+            }
+        }
+        double maxdifX = 0;
+        for (int difXj : sortedX) {
+            if (difXj > maxdifX && hasPairY(sortedY, difXj)) {
+                maxdifX = difXj;
+            }
+        }
+        if (maxdifX == 0 || maxdifY == 0) {
+            return null;
+        }
+
+        //Step 6: Filtration of lines, Step 7: Recognition of grid
+        int[] squaresY = squareGaps(difY, maxdifY, num_squares);
+        int[] squaresX = squareGaps(difX, maxdifX, num_squares);
+        if (squaresX == null || squaresY == null) {
+            return null;
+        }
+        int selectedX1 = grid_linesX[squaresX[0]];
+        int selectedX2 = grid_linesX[squaresX[1] + 1];
+        int selectedY1 = grid_linesY[squaresY[0]];
+        int selectedY2 = grid_linesY[squaresY[1] + 1];
+
+        //Step 8: Grid Selection
+        int cropX = selectedX2 - selectedX1;
+        int cropY = selectedY2 - selectedY1;
+        double podil = (double) cropX / cropY;
+        if (podil > 0.9 && podil < 1.2) {
+            return new Grid(selectedX1, selectedX2, selectedY1, selectedY2, z, grid_linesX, grid_linesY);
+        }
+        return null;
+    }
+
+    private static int[] gaps(int[] lines) {
+        int[] dif = new int[lines.length - 1];
+        for (int i = 0; i < dif.length; i++) {
+            dif[i] = lines[i + 1] - lines[i];
+        }
+        return dif;
+    }
+
+    // Is there a gap X with 0.8 < difX/difY < 1.2? The ratio grows with difX, so the smallest difX above 0.8 decides
+    private static boolean hasPairX(int[] sortedX, int difY) {
+        int lo = 0;
+        int hi = sortedX.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if ((double) sortedX[mid] / difY > 0.8) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo < sortedX.length && (double) sortedX[lo] / difY < 1.2;
+    }
+
+    // Is there a gap Y with 0.8 < difX/difY < 1.2? The ratio falls with difY, so the smallest difY below 1.2 decides
+    private static boolean hasPairY(int[] sortedY, int difX) {
+        int lo = 0;
+        int hi = sortedY.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if ((double) difX / sortedY[mid] < 1.2) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo < sortedY.length && (double) difX / sortedY[lo] > 0.8;
+    }
+
+    // Indexes of the first and of the num_squares-th gap longer than 0.75 of the longest one, or null
+    private static int[] squareGaps(int[] dif, double maxdif, int num_squares) {
+        int first = -1;
+        int found = 0;
+        for (int i = 0; i < dif.length; i++) {
+            if ((dif[i] / maxdif) > 0.75) {
+                if (found == 0) {
+                    first = i;
+                }
+                found++;
+                if (found == num_squares) {
+                    return new int[] {first, i};
+                }
+            }
+        }
+        return null;
+    }
+}
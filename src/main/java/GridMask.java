@@ -0,0 +1,77 @@
+/**
+ * Masking of grid lines for Grid_Ruler
+ *
+ * Description: Step 9 done on the selected square only. Pixels of detected grid lines are set to white in a buffer of
+ * cropX x cropY pixels instead of in a copy of the whole image. Lines are masked row lines first, then column lines,
+ * both in increasing order, so the result is the same as masking the whole image and cropping it afterwards.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.process.ByteProcessor;
+import java.awt.image.ColorModel;
+
+
+class GridMask {
+    private static final int newPixelValue = 255;
+
+    private GridMask() {
+    }
+
+    // Masked crop of the 8-bit image. pixels hold a region of the image with top left corner (originX, originY)
+    // and width regionWidth, the region must contain the grid including its right and bottom lines.
+    static ByteProcessor maskedCrop(byte[] pixels, int regionWidth, int originX, int originY, GridDetector.Grid grid, ColorModel cm) {
+        int selectedX1 = grid.selectedX1;
+        int selectedY1 = grid.selectedY1;
+        int cropX = grid.cropX();
+        int cropY = grid.cropY();
+        int z = grid.z;
+        byte[] cropped = new byte[cropX * cropY];
+        byte[] nextCol = new byte[cropY]; // column right of the crop, as left by masking of rows
+        for (int row = 0; row < cropY; row++) {
+            int offset = (selectedY1 + row - originY) * regionWidth + selectedX1 - originX;
+            System.arraycopy(pixels, offset, cropped, row * cropX, cropX);
+            nextCol[row] = pixels[offset + cropX];
+        }
+
+        // Rows: a line pixel is masked when it is not darker than the pixel below by more than z. Rows below
+        // are still unmasked at that time, so they are read from the image.
+        for (int line : grid.grid_linesY) {
+            if (line < selectedY1 || line >= selectedY1 + cropY) {
+                continue;
+            }
+            int row = line - selectedY1;
+            int offset = (line - originY) * regionWidth + selectedX1 - originX;
+            for (int col = 0; col <= cropX; col++) {
+                int rowrow = pixels[offset + col] & 0xff;
+                int nextrow = pixels[offset + regionWidth + col] & 0xff;
+                if (rowrow <= (nextrow + z)) {
+                    if (col < cropX) {
+                        cropped[row * cropX + col] = (byte) newPixelValue;
+                    } else {
+                        nextCol[row] = (byte) newPixelValue;
+                    }
+                }
+            }
+        }
+
+        // Columns: compared with the column on the right after masking of rows
+        for (int line : grid.grid_linesX) {
+            if (line < selectedX1 || line >= selectedX1 + cropX) {
+                continue;
+            }
+            int col = line - selectedX1;
+            for (int row = 0; row < cropY; row++) {
+                int i = row * cropX + col;
+                int colcol = cropped[i] & 0xff;
+                int nextcol = (col + 1 < cropX ? cropped[i + 1] : nextCol[row]) & 0xff;
+                if (colcol <= (nextcol + z)) {
+                    cropped[i] = (byte) newPixelValue;
+                }
+            }
+        }
+        return new ByteProcessor(cropX, cropY, cropped, cm);
+    }
+}
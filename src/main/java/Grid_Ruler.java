@@ -0,0 +1,140 @@
+/**
+ * ImageJ Plugin: Grid_Ruler
+ * 
+ * Description: This plugin facilitates the automated recognition of images with grid (such as Bürker chamber), measuring real size of particles and counting of particles based on their size
+ * 
+ * Author: Stepan Helmer
+ * 
+ * Institution: Crop Research Institute, Prague
+ * 
+ * Contact: stepan.helmer@vurv.cz
+ * 
+ * Date: [06_17_2024]
+ * 
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ * 
+ * Citation: []
+ */
+
+import ij.*;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.*;
+import ij.gui.*;
+import ij.ImagePlus;
+import java.util.List;
+import java.util.ArrayList; 
+import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
+import ij.io.DirectoryChooser;
+import java.awt.GraphicsEnvironment;
+
+
+public class Grid_Ruler implements PlugInFilter {
+    public int setup(String arg, ImagePlus imp) {
+        return DOES_ALL+NO_IMAGE_REQUIRED; 
+    }
+    private AnalysisSettings settings = new AnalysisSettings();
+
+    // Headless run from the command line, e.g.
+    // java -Djava.awt.headless=true -cp ij.jar:plugins Grid_Ruler dir=[/data/chamber] grid=100 squares=4 min=4 max=9 threads=16 mapped=256 save_binary save_rois reuse_grid
+    // Watch mode: add watch [settle=2] [idle=0], stops on a file "stop" in the folder, Esc, idle minutes or Ctrl+C
+    public static void main(String[] args) {
+        runHeadless(String.join(" ", args));
+    }
+
+    // Headless run with all dialog parametres given as options, no window is created
+    static void runHeadless(String options) {
+        String folderPath = Macro.getValue(options, "dir", null);
+        if (folderPath == null) {
+            IJ.log("Grid_Ruler: missing dir=[folder with images]");
+            return;
+        }
+        process(AnalysisSettings.fromOptions(options), folderPath);
+    }
+
+    public void run(ImageProcessor ip) {
+        String options = Macro.getOptions();
+        if (GraphicsEnvironment.isHeadless() || (options != null && Macro.getValue(options, "dir", null) != null)) {
+            runHeadless(options != null ? options : "");
+            return;
+        }
+        
+        // Step 1: Setting image properties
+        String[] imageFormats = {"tiff","jpg", "png", "gif", "bmp"};
+        //Generic dialog for specifiing size parametres of grid and particles
+        GenericDialog gd = new GenericDialog("Plugin options");
+        gd.addNumericField("Size of grid:", settings.grid_size, 0);
+        gd.addNumericField("Number of squares:", settings.num_squares, 0);
+        gd.addNumericField("Min particle size:", settings.size_of_par_min, 0);
+        gd.addNumericField("Max particle size:", settings.size_of_par_max, 0);
+        gd.addCheckbox("Save original image", false);
+        gd.addCheckbox("Save grayscale image", false);
+        gd.addCheckbox("Save binary image", true);
+        gd.addCheckbox("Save particle ROIs", true);
+        gd.addCheckbox("Reuse grid of similar images", false);
+        gd.addCheckbox("Watch folder for new images", false);
+        gd.addChoice("Format of image:", imageFormats, imageFormats[0]);
+        gd.addNumericField("Number of threads:", settings.threads, 0);
+        gd.showDialog();
+        if (gd.wasOKed()) {
+            // Get the entered values from the numeric fields
+            settings.grid_size = (int) gd.getNextNumber();
+            settings.num_squares = (int) gd.getNextNumber();
+            settings.size_of_par_min = (double) gd.getNextNumber();
+            settings.size_of_par_max = (double) gd.getNextNumber();
+            settings.saveCropped_orginal = gd.getNextBoolean();
+            settings.saveCroppedImage = gd.getNextBoolean();
+            settings.saveBinaryImage = gd.getNextBoolean();
+            settings.saveRois = gd.getNextBoolean();
+            settings.reuseGrid = gd.getNextBoolean();
+            settings.watch = gd.getNextBoolean();
+            settings.selectedFormat = gd.getNextChoice();
+            settings.threads = (int) gd.getNextNumber();
+            }
+
+        // Dialog window for choosing folder with pictures
+        DirectoryChooser dc = new DirectoryChooser("Select Folder");
+        process(settings, dc.getDirectory());
+    }
+
+    static void process(AnalysisSettings settings, String folderPath) {
+        String Result_folder = folderPath + File.separator + "Results";
+        File dir = new File(Result_folder);
+        dir.mkdir();
+        if (folderPath == null) {
+            return;
+            }
+
+        // Opening of all images in selected folder
+        File folder = new File(folderPath);
+        FolderWatcher watcher = null;
+        if (settings.watch) {
+            // Registered before the listing, so no image is missed between them
+            try {
+                watcher = new FolderWatcher(settings, folder);
+            } catch (IOException e) {
+                IJ.log("Unable to watch " + folderPath + ": " + e.getMessage());
+                return;
+            }
+        }
+        File[] listOfFiles = folder.listFiles();
+        if (listOfFiles != null) {
+            Arrays.sort(listOfFiles); // same order of results on every file system
+            List<File> images = new ArrayList<File>();
+            for (File file : listOfFiles) {
+                if (file.isFile() && file.getName().toLowerCase().endsWith(settings.selectedFormat)) {
+                    images.add(file);
+                }
+            }
+            if (watcher == null) {
+                new BatchRunner(settings, folderPath, Result_folder).run(images);
+            } else {
+                // Images still being written are left to the watcher
+                new BatchRunner(settings, folderPath, Result_folder).run(watcher.start(images), watcher);
+            }
+        } else if (watcher != null) {
+            watcher.close();
+        }
+    }
+}
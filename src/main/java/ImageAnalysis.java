@@ -0,0 +1,229 @@
+/**
+ * Analysis of one image for Grid_Ruler
+ *
+ * Description: Per-image analysis context (grid recognition, calibration, thresholding and particle analysis).
+ * Every worker of a batch owns one instance, so nothing below is shared between threads.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.*;
+import ij.measure.*;
+import ij.process.*;
+import ij.gui.*;
+import java.io.File;
+import java.io.IOException;
+import ij.io.Opener;
+import ij.io.FileSaver;
+
+
+class ImageAnalysis {
+    private final AnalysisSettings settings;
+    private final String Result_folder;
+    private final int projectionThreads; // threads left for one image when several images run at once
+    private final Binarizer binarizer = new Binarizer();
+    private final ParticleCounter particleCounter = new ParticleCounter();
+    private final GridCache gridCache; // grids of the session shared by all workers, or null
+
+    ImageAnalysis(AnalysisSettings settings, String Result_folder, GridCache gridCache) {
+        this.settings = settings;
+        this.Result_folder = Result_folder;
+        this.gridCache = gridCache;
+        this.projectionThreads = Math.max(1, Prefs.getThreads() / Math.max(1, settings.threads));
+    }
+
+    ImageResult analyze(File file) {
+        ImageResult result = new ImageResult(file.getName());
+        analyze(file, result);
+        return result;
+    }
+
+    private void analyze(File file, ImageResult result) {
+        String NameOfFile = result.NameOfFile;
+        StageTimer timer = new StageTimer();
+        result.timer = timer;
+        timer.mark();
+
+        // Steps 1-9: the selected square of the masked grayscale image and of the original image
+        ImageProcessor[] cropped;
+        MappedTiff tiff = file.length() >= settings.mappedSize * 1048576 ? MappedTiff.open(file) : null;
+        if (tiff != null) {
+            try {
+                cropped = cropMapped(tiff, result, timer);
+            } catch (IOException e) {
+                IJ.log("Unable to read " + NameOfFile + ": " + e.getMessage());
+                cropped = null;
+            } finally {
+                tiff.close();
+            }
+        } else {
+            cropped = crop(file, result, timer);
+        }
+        ImageProcessor converted_cropped = cropped != null ? cropped[0] : null;
+        ImageProcessor original_cropped = cropped != null ? cropped[1] : null;
+        ImageProcessor binary_cropped = null;
+        if (converted_cropped != null) {
+            ImagePlus croppedImage = new ImagePlus("Cropped Image", converted_cropped);
+            ImagePlus cropped_original = new ImagePlus("Cropped Image", original_cropped);
+
+            //Step 10: Size calibration
+            int longest_cropX = converted_cropped.getWidth();
+            int longest_cropY = converted_cropped.getHeight();
+            int longest_crop = Math.min(longest_cropX, longest_cropY);
+            double unit_size = (double) settings.grid_size / (double) longest_crop;
+            double sizer_coef = unit_size * unit_size;
+            // Nastavení kalibrace
+            Calibration cal = new Calibration();
+            cal.setUnit("nm");
+            cal.pixelWidth = unit_size; // Width of pixel in own units
+            cal.pixelHeight = unit_size; // Height of pixel in own units (nm)
+            timer.lap(StageTimer.CALIBRATION);
+            //Step 11 : Binarization/tresholding
+            binary_cropped = binarizer.threshold(converted_cropped);
+            timer.lap(StageTimer.THRESHOLDING);
+            // Step 12: Objects pre-processing
+            binarizer.preprocess((ByteProcessor) binary_cropped);
+            timer.lap(StageTimer.MORPHOLOGY);
+            result.imageBytes += bytes(converted_cropped) + bytes(original_cropped) + bytes(binary_cropped);
+            ImagePlus BinaryIp = new ImagePlus("converted image", binary_cropped);
+            BinaryIp.setCalibration(cal);
+            cropped_original.setCalibration(cal);
+
+            if (settings.saveBinaryImage) {
+                FileSaver fileSaver = new FileSaver(BinaryIp);
+                fileSaver.saveAsTiff(Result_folder + File.separator + "binary_" + NameOfFile);
+            }
+            if (settings.saveCroppedImage) {
+                FileSaver fileSaver = new FileSaver(croppedImage);
+                fileSaver.saveAsTiff(Result_folder + File.separator + "grayscale_" + NameOfFile);
+            }
+            if (settings.saveCropped_orginal) {
+                FileSaver fileSaver = new FileSaver(cropped_original);
+                fileSaver.saveAsTiff(Result_folder + File.separator + "cropped_original_" + NameOfFile);
+            }
+            timer.lap(StageTimer.SAVING);
+            // Step 13: Particle analyses
+            // Minimum and maximum particle size
+            double minSize = (0.5 * settings.size_of_par_min) * (0.5 * settings.size_of_par_min)*3/sizer_coef; // Specify the minimum particle size according to your needs
+            double maxSize = (0.5 * settings.size_of_par_max) * (0.5 * settings.size_of_par_max)*3/sizer_coef; // Specify the maximum particle size according to your needs
+
+            // Running of particle analysis, circularity 0.2-1.0
+            ParticleCounter.Particles particles = particleCounter.count(binary_cropped, minSize, maxSize, 0.2, 1.0, settings.saveRois);
+            timer.lap(StageTimer.PARTICLES);
+            result.gridFound = true;
+            result.count = particles.count;
+            if (particles.rois != null) {
+                result.rois = particles.rois;
+            }
+            result.area = particles.area;
+            result.x = new double[particles.count];
+            result.y = new double[particles.count];
+            for (int i = 0; i < particles.count; i++) {
+                result.x[i] = particles.xBase[i];
+                result.y[i] = particles.yBase[i];
+            }
+        }
+    }
+
+    // Image opened by ImageJ: grid found in the whole 8-bit image, both images cropped to the selected square
+    private ImageProcessor[] crop(File file, ImageResult result, StageTimer timer) {
+        // Opening of an image
+        Opener opener = new Opener();
+        ImagePlus imp = opener.openImage(file.getAbsolutePath());
+        timer.lap(StageTimer.OPEN);
+        if (imp == null) {
+            return null;
+        }
+
+        ImageProcessor original = imp.getProcessor();
+        // Step 2: Convertion into grayscale
+        ImageProcessor converted = original.convertToByte(true);
+        timer.lap(StageTimer.GRAYSCALE);
+        result.imageBytes = bytes(original);
+        if (converted != original) {
+            result.imageBytes += bytes(converted);
+        }
+
+        int width = converted.getWidth();
+        int height = converted.getHeight();
+        byte[] pixels = (byte[]) converted.getPixels();
+        GridDetector.Grid grid = null;
+        if (gridCache != null) {
+            grid = gridCache.lookup(pixels, width, height);
+            timer.lap(StageTimer.GRID_CACHE);
+        }
+        if (grid == null) {
+            // Step 3: Calculation the average color of lines
+            Projection projection = Projection.of(pixels, width, height, projectionThreads);
+            int[] rowColors = projection.rowColors;
+            int[] colColors = projection.colColors;
+            timer.lap(StageTimer.PROJECTION);
+
+            // Steps 4-8: Grid lines detection, recognition of squares and of grid
+            grid = GridDetector.detect(rowColors, colColors, settings.num_squares);
+            if (grid != null && gridCache != null) {
+                gridCache.put(width, height, grid);
+            }
+            timer.lap(StageTimer.DETECTION);
+        }
+        if (grid != null) {
+            int selectedX1 = grid.selectedX1;
+            int selectedY1 = grid.selectedY1;
+            int cropX = grid.cropX();
+            int cropY = grid.cropY();
+            // Creation of cropped image
+
+            // Step 9: Masking of grid lines, only the selected square is copied
+            ImageProcessor converted_cropped = GridMask.maskedCrop(pixels, width, 0, 0, grid, converted.getColorModel());
+            original.setRoi(selectedX1, selectedY1, cropX, cropY);
+            ImageProcessor original_cropped = original.crop();
+            original.resetRoi();
+            timer.lap(StageTimer.MASKING);
+            return new ImageProcessor[] {converted_cropped, original_cropped};
+        }
+        return null;
+    }
+
+    // Large TIFF file read through a mapping: profiles summed strip by strip, only the selected square decoded.
+    // The grid cache needs the whole 8-bit image and is not used here.
+    private ImageProcessor[] cropMapped(MappedTiff tiff, ImageResult result, StageTimer timer) throws IOException {
+        timer.lap(StageTimer.OPEN);
+        // Steps 2-3: Average color of lines of the grayscale image
+        Projection projection = tiff.projection(projectionThreads);
+        timer.lap(StageTimer.PROJECTION);
+
+        // Steps 4-8: Grid lines detection, recognition of squares and of grid
+        GridDetector.Grid grid = GridDetector.detect(projection.rowColors, projection.colColors, settings.num_squares);
+        timer.lap(StageTimer.DETECTION);
+        if (grid == null) {
+            return null;
+        }
+        int cropX = grid.cropX();
+        int cropY = grid.cropY();
+        // The region includes the right and bottom lines of the square, needed by the masking
+        ImageProcessor region = tiff.region(grid.selectedX1, grid.selectedY1, cropX + 1, cropY + 1);
+        timer.lap(StageTimer.OPEN);
+        ImageProcessor converted = region.convertToByte(true);
+        timer.lap(StageTimer.GRAYSCALE);
+        result.imageBytes = bytes(region);
+        if (converted != region) {
+            result.imageBytes += bytes(converted);
+        }
+
+        // Step 9: Masking of grid lines
+        ImageProcessor converted_cropped = GridMask.maskedCrop((byte[]) converted.getPixels(), converted.getWidth(),
+                grid.selectedX1, grid.selectedY1, grid, converted.getColorModel());
+        region.setRoi(0, 0, cropX, cropY);
+        ImageProcessor original_cropped = region.crop();
+        timer.lap(StageTimer.MASKING);
+        return new ImageProcessor[] {converted_cropped, original_cropped};
+    }
+
+    // Size of the pixel array of the processor
+    private static long bytes(ImageProcessor ip) {
+        int bytesPerPixel = ip.getBitDepth() == 24 ? 4 : ip.getBitDepth() / 8;
+        return (long) ip.getWidth() * ip.getHeight() * bytesPerPixel;
+    }
+}
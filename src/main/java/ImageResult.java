@@ -0,0 +1,29 @@
+/**
+ * Result of the analysis of one image
+ *
+ * Description: Values produced by ImageAnalysis for one file, merged into the output files by BatchRunner
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.gui.Roi;
+
+
+class ImageResult {
+    final String NameOfFile;
+    boolean gridFound = false; // false when no grid was recognised, such image is not counted
+    boolean cached = false; // unchanged image from the manifest, particles and ROIs are copied from the previous outputs
+    int count = 0; // number of counted particles
+    Roi[] rois = new Roi[0]; // outlines of particles, only when ROIs are saved
+    double[] area = new double[0]; // area of particles in pixels
+    double[] x = new double[0]; // top left corner of particles
+    double[] y = new double[0];
+    long imageBytes = 0; // pixel arrays allocated for the image (decoded, grayscale and cropped images)
+    StageTimer timer = null; // time and allocation of the steps, null when the image was not analysed
+
+    ImageResult(String NameOfFile) {
+        this.NameOfFile = NameOfFile;
+    }
+}
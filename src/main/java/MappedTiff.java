@@ -0,0 +1,420 @@
+/**
+ * Memory-mapped TIFF input for Grid_Ruler
+ *
+ * Description: Input path for large single-image TIFF files with uncompressed strips (8-bit gray, 16-bit gray or 8-bit
+ * RGB, chunky). The file is mapped in windows of at most 1 GB and never decoded as a whole: the row and column profiles
+ * of Step 3 are summed row by row from the mapped strips, and only the region of the selected square is decoded into an
+ * ImageProcessor. Gray values are the ones convertToByte(true) gives for the image opened by ImageJ (RGB weights of
+ * ColorProcessor, 16-bit scaled by the display range of the image), so the results equal the ones of the opened image.
+ * Files of other layouts are opened by ImageJ as before (open returns null).
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+
+class MappedTiff implements Closeable {
+    private static final long MAX_WINDOW = 1L << 30; // largest mapped part of the file
+    private static final int GRAY8 = 0, GRAY16 = 1, RGB = 2;
+
+    // TIFF tags
+    private static final int IMAGE_WIDTH = 256, IMAGE_LENGTH = 257, BITS_PER_SAMPLE = 258, COMPRESSION = 259,
+            PHOTO_INTERP = 262, IMAGE_DESCRIPTION = 270, STRIP_OFFSETS = 273, SAMPLES_PER_PIXEL = 277,
+            ROWS_PER_STRIP = 278, STRIP_BYTE_COUNT = 279, PLANAR_CONFIGURATION = 284, COLOR_MAP = 320,
+            TILE_WIDTH = 322, EXTRA_SAMPLES = 338, SAMPLE_FORMAT = 339;
+
+    final int width;
+    final int height;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final ByteOrder order;
+    private int type;
+    private int bytesPerPixel;
+    private long rowsPerStrip;
+    private long[] stripOffsets;
+    private String description;
+    private int min, max; // display range of 16-bit images
+    private byte[] gray16; // 8-bit value of every 16-bit value
+    private double rw, gw, bw; // weights of RGB channels
+
+    private MappedTiff(FileChannel channel, ByteOrder order, int width, int height) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.order = order;
+        this.width = width;
+        this.height = height;
+    }
+
+    // Mapped TIFF when the file has a supported layout, or null when it is to be opened by ImageJ
+    static MappedTiff open(File file) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            MappedTiff tiff = parse(channel);
+            if (tiff != null) {
+                return tiff;
+            }
+        } catch (IOException | RuntimeException e) {
+            // not a readable TIFF, ImageJ reports the error
+        }
+        close(channel);
+        return null;
+    }
+
+    // Step 3 on the 8-bit values of the image, rows are split into bands read on several threads
+    Projection projection(int threads) throws IOException {
+        if (type == GRAY16) {
+            displayRange(threads);
+        } else if (type == RGB) {
+            double[] w = ColorProcessor.getWeightingFactors();
+            rw = w[0];
+            gw = w[1];
+            bw = w[2];
+        }
+        final int[] rowSums = new int[height];
+        int bands = Projection.bands(threads, height);
+        final long[][] colSums = new long[bands][];
+        bands(bands, (reader, band, from, to) -> {
+            byte[] raw = new byte[width * bytesPerPixel];
+            byte[] gray = new byte[width];
+            Projection.Accumulator sums = new Projection.Accumulator(width);
+            for (int row = from; row < to; row++) {
+                reader.read(offset(row), raw, raw.length);
+                toGray(raw, gray, width);
+                rowSums[row] = sums.add(gray, 0);
+            }
+            colSums[band] = sums.columnSums();
+        });
+        return Projection.of(rowSums, colSums, width, height);
+    }
+
+    // Region of the image in its own type, 16-bit regions keep the display range of the whole image
+    ImageProcessor region(int x, int y, int regionWidth, int regionHeight) throws IOException {
+        byte[] raw = new byte[regionWidth * bytesPerPixel];
+        Reader reader = new Reader();
+        if (type == GRAY8) {
+            byte[] pixels = new byte[regionWidth * regionHeight];
+            for (int row = 0; row < regionHeight; row++) {
+                reader.read(offset(y + row) + (long) x * bytesPerPixel, raw, raw.length);
+                System.arraycopy(raw, 0, pixels, row * regionWidth, regionWidth);
+            }
+            return new ByteProcessor(regionWidth, regionHeight, pixels);
+        }
+        if (type == GRAY16) {
+            short[] pixels = new short[regionWidth * regionHeight];
+            ByteBuffer buffer = ByteBuffer.wrap(raw).order(order);
+            for (int row = 0; row < regionHeight; row++) {
+                reader.read(offset(y + row) + (long) x * bytesPerPixel, raw, raw.length);
+                buffer.asShortBuffer().get(pixels, row * regionWidth, regionWidth);
+            }
+            ShortProcessor ip = new ShortProcessor(regionWidth, regionHeight, pixels, null);
+            ip.setMinAndMax(min, max);
+            return ip;
+        }
+        int[] pixels = new int[regionWidth * regionHeight];
+        for (int row = 0; row < regionHeight; row++) {
+            reader.read(offset(y + row) + (long) x * bytesPerPixel, raw, raw.length);
+            int i = row * regionWidth;
+            for (int col = 0, j = 0; col < regionWidth; col++, j += 3) {
+                pixels[i + col] = 0xff000000 | (raw[j] & 0xff) << 16 | (raw[j + 1] & 0xff) << 8 | raw[j + 2] & 0xff;
+            }
+        }
+        return new ColorProcessor(regionWidth, regionHeight, pixels);
+    }
+
+    public void close() {
+        close(channel);
+    }
+
+    // Display range of a 16-bit image as set by ImageJ: from the ImageJ description, else min and max of the pixels
+    private void displayRange(int threads) throws IOException {
+        Properties props = properties(description);
+        double displayMin = number(props, "min");
+        double displayMax = number(props, "max");
+        if (displayMin == 0.0 && displayMax == 0.0) {
+            int bands = Projection.bands(threads, height);
+            final int[] bandMin = new int[bands];
+            final int[] bandMax = new int[bands];
+            bands(bands, (reader, band, from, to) -> {
+                byte[] raw = new byte[width * 2];
+                short[] values = new short[width];
+                ByteBuffer buffer = ByteBuffer.wrap(raw).order(order);
+                int lo = 65535, hi = 0;
+                for (int row = from; row < to; row++) {
+                    reader.read(offset(row), raw, raw.length);
+                    buffer.asShortBuffer().get(values);
+                    for (short v : values) {
+                        int value = v & 0xffff;
+                        lo = Math.min(lo, value);
+                        hi = Math.max(hi, value);
+                    }
+                }
+                bandMin[band] = lo;
+                bandMax[band] = hi;
+            });
+            min = 65535;
+            max = 0;
+            for (int band = 0; band < bands; band++) {
+                min = Math.min(min, bandMin[band]);
+                max = Math.max(max, bandMax[band]);
+            }
+        } else {
+            min = (int) Math.round(displayMin); // as ShortProcessor.setMinAndMax
+            max = (int) Math.round(displayMax);
+        }
+        // TypeConverter.convertShortToByte
+        double scale = 256.0 / (max - min + 1);
+        gray16 = new byte[65536];
+        for (int v = 0; v < 65536; v++) {
+            int value = Math.max(0, v - min);
+            gray16[v] = (byte) Math.min(255, (int) (value * scale + 0.5));
+        }
+    }
+
+    // 8-bit values of one row, as convertToByte(true)
+    private void toGray(byte[] raw, byte[] gray, int n) {
+        if (type == GRAY8) {
+            System.arraycopy(raw, 0, gray, 0, n);
+        } else if (type == GRAY16) {
+            boolean little = order == ByteOrder.LITTLE_ENDIAN;
+            for (int i = 0, j = 0; i < n; i++, j += 2) {
+                int value = little ? (raw[j] & 0xff) | (raw[j + 1] & 0xff) << 8 : (raw[j] & 0xff) << 8 | (raw[j + 1] & 0xff);
+                gray[i] = gray16[value];
+            }
+        } else {
+            for (int i = 0, j = 0; i < n; i++, j += 3) {
+                int r = raw[j] & 0xff, g = raw[j + 1] & 0xff, b = raw[j + 2] & 0xff;
+                gray[i] = (byte) (r * rw + g * gw + b * bw + 0.5);
+            }
+        }
+    }
+
+    // Position of the first byte of a row in the file
+    private long offset(int row) {
+        int strip = (int) (row / rowsPerStrip);
+        return stripOffsets[strip] + (row - strip * rowsPerStrip) * width * bytesPerPixel;
+    }
+
+    // Work on rows from..to-1 of one band, read through its own mapping
+    private interface BandTask {
+        void run(Reader reader, int band, int from, int to) throws IOException;
+    }
+
+    // Projection.inBands with a reader for every band
+    private void bands(int bands, final BandTask task) throws IOException {
+        try {
+            Projection.inBands(bands, height, (band, from, to) -> {
+                try {
+                    task.run(new Reader(), band, from, to);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Mapped window of the file, moved forward as rows are read
+    private class Reader {
+        private MappedByteBuffer window;
+        private long start, end;
+
+        void read(long position, byte[] dst, int length) throws IOException {
+            if (window == null || position < start || position + length > end) {
+                start = position;
+                end = Math.min(fileSize, position + Math.max(MAX_WINDOW, length));
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+            window.position((int) (position - start));
+            window.get(dst, 0, length);
+        }
+    }
+
+    // Header and first IFD; null for compressed, tiled, planar, palette, multi-image files and other sample types
+    private static MappedTiff parse(FileChannel channel) throws IOException {
+        ByteBuffer header = read(channel, 0, 8, ByteOrder.BIG_ENDIAN);
+        ByteOrder order;
+        if (header.get(0) == 'I' && header.get(1) == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            return null;
+        }
+        header.order(order);
+        if (header.getShort(2) != 42) {
+            return null; // BigTIFF is opened by ImageJ
+        }
+        long ifd = header.getInt(4) & 0xffffffffL;
+        int entries = read(channel, ifd, 2, order).getShort(0) & 0xffff;
+        ByteBuffer dir = read(channel, ifd + 2, entries * 12 + 4, order);
+        if (dir.getInt(entries * 12) != 0) {
+            return null; // stacks get the display range of all images
+        }
+
+        long width = 0, height = 0, rowsPerStrip = Long.MAX_VALUE;
+        int compression = 1, photometric = -1, samples = 1, planar = 1, sampleFormat = 1;
+        long[] bits = null, offsets = null, counts = null;
+        String description = null;
+        for (int i = 0; i < entries; i++) {
+            int entry = i * 12;
+            int tag = dir.getShort(entry) & 0xffff;
+            switch (tag) {
+                case IMAGE_WIDTH: width = values(channel, dir, entry, order)[0]; break;
+                case IMAGE_LENGTH: height = values(channel, dir, entry, order)[0]; break;
+                case BITS_PER_SAMPLE: bits = values(channel, dir, entry, order); break;
+                case COMPRESSION: compression = (int) values(channel, dir, entry, order)[0]; break;
+                case PHOTO_INTERP: photometric = (int) values(channel, dir, entry, order)[0]; break;
+                case IMAGE_DESCRIPTION: description = text(channel, dir, entry, order); break;
+                case STRIP_OFFSETS: offsets = values(channel, dir, entry, order); break;
+                case SAMPLES_PER_PIXEL: samples = (int) values(channel, dir, entry, order)[0]; break;
+                case ROWS_PER_STRIP: rowsPerStrip = values(channel, dir, entry, order)[0]; break;
+                case STRIP_BYTE_COUNT: counts = values(channel, dir, entry, order); break;
+                case PLANAR_CONFIGURATION: planar = (int) values(channel, dir, entry, order)[0]; break;
+                case SAMPLE_FORMAT: sampleFormat = (int) values(channel, dir, entry, order)[0]; break;
+                case COLOR_MAP: case TILE_WIDTH: case EXTRA_SAMPLES: return null;
+                default: break;
+            }
+        }
+        if (compression != 1 || planar != 1 || sampleFormat != 1 || bits == null || offsets == null || counts == null
+                || offsets.length != counts.length || width <= 0 || height <= 0 || width * height > Integer.MAX_VALUE) {
+            return null;
+        }
+        int type;
+        int bytesPerPixel;
+        if (photometric == 1 && samples == 1 && bits[0] == 8) {
+            type = GRAY8;
+            bytesPerPixel = 1;
+        } else if (photometric == 1 && samples == 1 && bits[0] == 16) {
+            type = GRAY16;
+            bytesPerPixel = 2;
+        } else if (photometric == 2 && samples == 3 && bits.length == 3 && bits[0] == 8 && bits[1] == 8 && bits[2] == 8) {
+            type = RGB;
+            bytesPerPixel = 3;
+        } else {
+            return null;
+        }
+        Properties props = properties(description);
+        if (props != null && number(props, "images") > 1) {
+            return null;
+        }
+        rowsPerStrip = Math.min(rowsPerStrip, height);
+        long rowBytes = width * bytesPerPixel;
+        if (rowBytes > MAX_WINDOW || offsets.length < (height + rowsPerStrip - 1) / rowsPerStrip) {
+            return null;
+        }
+        for (int strip = 0; strip < offsets.length; strip++) {
+            long rows = Math.min(rowsPerStrip, height - strip * rowsPerStrip);
+            if (rows > 0 && (counts[strip] < rows * rowBytes || offsets[strip] + rows * rowBytes > channel.size())) {
+                return null; // strips shorter than the image
+            }
+        }
+
+        MappedTiff tiff = new MappedTiff(channel, order, (int) width, (int) height);
+        tiff.type = type;
+        tiff.bytesPerPixel = bytesPerPixel;
+        tiff.rowsPerStrip = rowsPerStrip;
+        tiff.stripOffsets = offsets;
+        tiff.description = description;
+        return tiff;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length, ByteOrder order) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // SHORT or LONG values of an IFD entry, stored in the entry when they fit in 4 bytes
+    private static long[] values(FileChannel channel, ByteBuffer dir, int entry, ByteOrder order) throws IOException {
+        int fieldType = dir.getShort(entry + 2);
+        long count = dir.getInt(entry + 4) & 0xffffffffL;
+        int size = fieldType == 3 ? 2 : fieldType == 4 ? 4 : 0;
+        if (size == 0 || count == 0 || count > Integer.MAX_VALUE / 4) {
+            throw new IOException("Unsupported TIFF field type " + fieldType);
+        }
+        ByteBuffer data;
+        if (count * size <= 4) {
+            data = dir.duplicate().order(order);
+            data.position(entry + 8);
+        } else {
+            data = read(channel, dir.getInt(entry + 8) & 0xffffffffL, (int) count * size, order);
+        }
+        long[] values = new long[(int) count];
+        for (int i = 0; i < count; i++) {
+            values[i] = size == 2 ? data.getShort() & 0xffff : data.getInt() & 0xffffffffL;
+        }
+        return values;
+    }
+
+    private static String text(FileChannel channel, ByteBuffer dir, int entry, ByteOrder order) throws IOException {
+        long count = dir.getInt(entry + 4) & 0xffffffffL;
+        if (count <= 4 || count > 1 << 20) {
+            return null;
+        }
+        ByteBuffer data = read(channel, dir.getInt(entry + 8) & 0xffffffffL, (int) count, order);
+        byte[] chars = new byte[(int) count];
+        data.get(chars);
+        return new String(chars, 0, chars[chars.length - 1] == 0 ? chars.length - 1 : chars.length);
+    }
+
+    // Properties of an ImageJ description, as read by ij.io.FileOpener
+    private static Properties properties(String description) {
+        if (description == null || description.length() < 7 || !description.startsWith("ImageJ")) {
+            return null;
+        }
+        Properties props = new Properties();
+        try {
+            props.load(new ByteArrayInputStream(description.getBytes()));
+        } catch (IOException e) {
+            return null;
+        }
+        return props;
+    }
+
+    private static double number(Properties props, String key) {
+        String value = props == null ? null : props.getProperty(key);
+        if (value == null) {
+            return 0.0;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+
+    private static void close(Closeable stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // read only
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Particle counting for Grid_Ruler
+ *
+ * Description: Connected-component labelling of the binary mask (Step 13). Particles are 8-connected groups of
+ * foreground (255) pixels, filtered by size in pixels and by circularity as by ParticleAnalyzer: the perimeter is
+ * taken from the traced outline (Wand, legacy mode) with the corner correction of traced selections.
+ * Nothing is shared between instances, every worker owns one; ROIs are built only when asked for.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.gui.Wand;
+import ij.process.ImageProcessor;
+import java.util.Arrays;
+
+
+class ParticleCounter {
+    private static final int FOREGROUND = 255;
+
+    // Measured particles, in the order in which they are found scanning the image row by row
+    static class Particles {
+        int count = 0;
+        double[] area = new double[16]; // area in pixels
+        double[] xCentroid = new double[16];
+        double[] yCentroid = new double[16];
+        double[] intDen = new double[16]; // sum of pixel values of the particle
+        int[] xBase = new int[16]; // bounding rectangle
+        int[] yBase = new int[16];
+        Roi[] rois = null; // outlines, when requested
+
+        private void add(double area, double xCentroid, double yCentroid, double intDen, int xBase, int yBase, Roi roi) {
+            if (count == this.area.length) {
+                int size = count * 2;
+                this.area = Arrays.copyOf(this.area, size);
+                this.xCentroid = Arrays.copyOf(this.xCentroid, size);
+                this.yCentroid = Arrays.copyOf(this.yCentroid, size);
+                this.intDen = Arrays.copyOf(this.intDen, size);
+                this.xBase = Arrays.copyOf(this.xBase, size);
+                this.yBase = Arrays.copyOf(this.yBase, size);
+                if (rois != null) {
+                    rois = Arrays.copyOf(rois, size);
+                }
+            }
+            this.area[count] = area;
+            this.xCentroid[count] = xCentroid;
+            this.yCentroid[count] = yCentroid;
+            this.intDen[count] = intDen;
+            this.xBase[count] = xBase;
+            this.yBase[count] = yBase;
+            if (rois != null) {
+                rois[count] = roi;
+            }
+            count++;
+        }
+
+        private void trim() {
+            area = Arrays.copyOf(area, count);
+            xCentroid = Arrays.copyOf(xCentroid, count);
+            yCentroid = Arrays.copyOf(yCentroid, count);
+            intDen = Arrays.copyOf(intDen, count);
+            xBase = Arrays.copyOf(xBase, count);
+            yBase = Arrays.copyOf(yBase, count);
+            if (rois != null) {
+                rois = Arrays.copyOf(rois, count);
+            }
+        }
+    }
+
+    private boolean[] visited = new boolean[0];
+    private int[] stack = new int[64];
+
+    // Particles of the binary mask with minSize <= area <= maxSize (pixels) and minCircularity <= circularity <= maxCircularity
+    Particles count(ImageProcessor mask, double minSize, double maxSize, double minCircularity, double maxCircularity, boolean buildRois) {
+        int width = mask.getWidth();
+        int height = mask.getHeight();
+        byte[] pixels = (byte[]) mask.getPixels();
+        int n = width * height;
+        if (visited.length < n) {
+            visited = new boolean[n];
+        } else {
+            Arrays.fill(visited, 0, n, false);
+        }
+        Particles particles = new Particles();
+        if (buildRois) {
+            particles.rois = new Roi[16];
+        }
+        Wand wand = null;
+
+        for (int start = 0; start < n; start++) {
+            if (visited[start] || (pixels[start] & 0xff) != FOREGROUND) {
+                continue;
+            }
+            // Labelling of one particle (8-connected), the first pixel is its top left one
+            int size = 0;
+            long sumX = 0;
+            long sumY = 0;
+            long sumValues = 0;
+            int minX = width;
+            int minY = height;
+            int top = 0;
+            visited[start] = true;
+            stack[top++] = start;
+            while (top > 0) {
+                int i = stack[--top];
+                int x = i % width;
+                int y = i / width;
+                size++;
+                sumX += x;
+                sumY += y;
+                sumValues += pixels[i] & 0xff;
+                if (x < minX) {
+                    minX = x;
+                }
+                if (y < minY) {
+                    minY = y;
+                }
+                for (int dy = -1; dy <= 1; dy++) {
+                    int yy = y + dy;
+                    if (yy < 0 || yy >= height) {
+                        continue;
+                    }
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int xx = x + dx;
+                        if (xx < 0 || xx >= width) {
+                            continue;
+                        }
+                        int j = xx + yy * width;
+                        if (!visited[j] && (pixels[j] & 0xff) == FOREGROUND) {
+                            visited[j] = true;
+                            if (top == stack.length) {
+                                stack = Arrays.copyOf(stack, stack.length * 2);
+                            }
+                            stack[top++] = j;
+                        }
+                    }
+                }
+            }
+            if (size < minSize || size > maxSize) {
+                continue;
+            }
+
+            // Circularity from the traced outline
+            if (wand == null) {
+                wand = new Wand(mask);
+            }
+            int x0 = start % width;
+            int y0 = start / width;
+            wand.autoOutline(x0, y0, 255.0, 255.0, Wand.LEGACY_MODE);
+            double perimeter = tracedPerimeter(wand.xpoints, wand.ypoints, wand.npoints);
+            double circularity = perimeter == 0.0 ? 0.0 : 4.0 * Math.PI * (size / (perimeter * perimeter));
+            if (circularity > 1.0 && maxCircularity <= 1.0) {
+                circularity = 1.0;
+            }
+            if (circularity < minCircularity || circularity > maxCircularity) {
+                continue;
+            }
+            Roi roi = null;
+            if (buildRois) {
+                // traced selections keep the arrays they are given, the wand reuses its own for the next particle
+                roi = new PolygonRoi(Arrays.copyOf(wand.xpoints, wand.npoints), Arrays.copyOf(wand.ypoints, wand.npoints), wand.npoints, Roi.TRACED_ROI);
+            }
+            particles.add(size, sumX / (double) size + 0.5, sumY / (double) size + 0.5, sumValues, minX, minY, roi);
+        }
+        particles.trim();
+        return particles;
+    }
+
+    // Perimeter of a traced outline, corners are cut as by PolygonRoi for traced selections
+    static double tracedPerimeter(int[] xp, int[] yp, int nPoints) {
+        if (nPoints < 4) {
+            return 0;
+        }
+        int sumdx = 0;
+        int sumdy = 0;
+        int nCorners = 0;
+        int dx1 = xp[0] - xp[nPoints - 1];
+        int dy1 = yp[0] - yp[nPoints - 1];
+        int side1 = Math.abs(dx1) + Math.abs(dy1); //one of these is 0
+        boolean corner = false;
+        for (int i = 0; i < nPoints; i++) {
+            int nexti = i + 1;
+            if (nexti == nPoints) {
+                nexti = 0;
+            }
+            int dx2 = xp[nexti] - xp[i];
+            int dy2 = yp[nexti] - yp[i];
+            sumdx += Math.abs(dx1);
+            sumdy += Math.abs(dy1);
+            int side2 = Math.abs(dx2) + Math.abs(dy2);
+            if (side1 > 1 || !corner) {
+                corner = true;
+                nCorners++;
+            } else {
+                corner = false;
+            }
+            dx1 = dx2;
+            dy1 = dy2;
+            side1 = side2;
+        }
+        return sumdx + sumdy - (nCorners * (2.0 - Math.sqrt(2.0)));
+    }
+}
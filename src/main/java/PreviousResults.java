@@ -0,0 +1,271 @@
+/**
+ * Results of previous runs for Grid_Ruler
+ *
+ * Description: When a batch reuses images from the manifest, the output files are rewritten and the particle rows and
+ * ROIs of reused images are copied from the outputs of previous runs. Those are renamed to Particle-parametres.csv.prevN
+ * and log.zip.prevN before the batch and deleted after it completes; an interrupted batch leaves them in place, together
+ * with its own partial outputs, and the next batch takes every image from the newest of them holding all its particles.
+ * Images are written in the same (sorted) order in every run, so each previous file is read once, front to back.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.IJ;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+
+class PreviousResults implements Closeable {
+    private static final String PREVIOUS = ".prev";
+    private static final String PARTICLE = " Particle_"; // separates the file name in rows of Particle-parametres.csv
+
+    private final List<File> particleFiles; // generations of Particle-parametres.csv, oldest first
+    private final List<File> roiFiles; // generations of log.zip, oldest first
+    private final List<Map<String, Integer>> particleRows = new ArrayList<Map<String, Integer>>(); // rows of every image
+    private final List<Map<String, Integer>> roiEntries = new ArrayList<Map<String, Integer>>(); // ROIs of every image
+    private final BufferedReader[] particleReaders;
+    private final String[] particleLine; // next row of every generation
+    private final ZipInputStream[] roiReaders;
+    private final ZipEntry[] roiEntry; // next entry of every generation
+    private final byte[] buffer = new byte[8192];
+
+    // Moves the outputs of previous runs aside; they are read only when images are reused (carry)
+    PreviousResults(String folderPath, String Result_folder, boolean carry) throws IOException {
+        particleFiles = rotate(new File(Result_folder, "Particle-parametres.csv"), carry);
+        roiFiles = rotate(new File(folderPath, "log.zip"), carry);
+        particleReaders = new BufferedReader[particleFiles.size()];
+        particleLine = new String[particleFiles.size()];
+        roiReaders = new ZipInputStream[roiFiles.size()];
+        roiEntry = new ZipEntry[roiFiles.size()];
+        if (!carry) {
+            return;
+        }
+        for (File file : particleFiles) {
+            Map<String, Integer> rows = new HashMap<String, Integer>();
+            String last = null;
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    increment(rows, owner(line), 1);
+                    last = line;
+                }
+            }
+            if (last != null && !endsWithNewLine(file)) {
+                increment(rows, owner(last), -1); // row cut by an interrupted run
+            }
+            particleRows.add(rows);
+        }
+        for (File file : roiFiles) {
+            Map<String, Integer> entries = new HashMap<String, Integer>();
+            try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                ZipEntry entry;
+                while ((entry = nextEntry(zip)) != null && skip(zip)) {
+                    increment(entries, owner(entry), 1);
+                }
+            }
+            roiEntries.add(entries);
+        }
+    }
+
+    // Copies the rows of an image with count particles, returns false when no previous file has all of them
+    boolean copyParticles(String NameOfFile, int count, Writer out) throws IOException {
+        int generation = newest(particleRows, NameOfFile, count);
+        if (generation < 0) {
+            return false;
+        }
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (particleReaders[generation] == null || particleLine[generation] == null) {
+                close(particleReaders[generation]);
+                particleReaders[generation] = new BufferedReader(new FileReader(particleFiles.get(generation)));
+                particleLine[generation] = particleReaders[generation].readLine();
+            }
+            BufferedReader reader = particleReaders[generation];
+            String line = particleLine[generation];
+            while (line != null && !NameOfFile.equals(owner(line))) {
+                line = reader.readLine();
+            }
+            boolean found = line != null;
+            while (line != null && NameOfFile.equals(owner(line))) {
+                out.write(line + "\n");
+                line = reader.readLine();
+            }
+            particleLine[generation] = line;
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True when the previous outputs have all rows of the image, and all its ROIs when they are saved
+    boolean holds(ImageResult result, boolean rois) {
+        if (!result.gridFound || result.count == 0) {
+            return true; // nothing but the count is written
+        }
+        return newest(particleRows, result.NameOfFile, result.count) >= 0
+                && (!rois || newest(roiEntries, result.NameOfFile, result.count) >= 0);
+    }
+
+    boolean hasRois(String NameOfFile, int count) {
+        return newest(roiEntries, NameOfFile, count) >= 0;
+    }
+
+    // Copies the ROIs of an image with count particles, returns false when no previous file has all of them
+    boolean copyRois(String NameOfFile, int count, ZipOutputStream out) throws IOException {
+        int generation = newest(roiEntries, NameOfFile, count);
+        if (generation < 0) {
+            return false;
+        }
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (roiReaders[generation] == null || roiEntry[generation] == null) {
+                close(roiReaders[generation]);
+                roiReaders[generation] = new ZipInputStream(new BufferedInputStream(new FileInputStream(roiFiles.get(generation))));
+                roiEntry[generation] = nextEntry(roiReaders[generation]);
+            }
+            ZipInputStream zip = roiReaders[generation];
+            ZipEntry entry = roiEntry[generation];
+            while (entry != null && !NameOfFile.equals(owner(entry))) {
+                entry = nextEntry(zip);
+            }
+            boolean found = entry != null;
+            while (entry != null && NameOfFile.equals(owner(entry))) {
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                int n;
+                while ((n = zip.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+                entry = nextEntry(zip);
+            }
+            roiEntry[generation] = entry;
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void close() {
+        for (int i = 0; i < particleReaders.length; i++) {
+            close(particleReaders[i]);
+            particleReaders[i] = null;
+        }
+        for (int i = 0; i < roiReaders.length; i++) {
+            close(roiReaders[i]);
+            roiReaders[i] = null;
+        }
+    }
+
+    // Deletes the previous outputs, after a completed batch
+    void delete() {
+        close();
+        for (File file : particleFiles) {
+            file.delete();
+        }
+        for (File file : roiFiles) {
+            file.delete();
+        }
+    }
+
+    // Existing generations of the output and the output itself renamed as the newest one, when it is needed
+    private static List<File> rotate(File output, boolean carry) throws IOException {
+        List<File> generations = new ArrayList<File>();
+        File generation;
+        while ((generation = new File(output.getPath() + PREVIOUS + (generations.size() + 1))).exists()) {
+            generations.add(generation);
+        }
+        if (carry && output.exists()) {
+            if (!output.renameTo(generation)) {
+                throw new IOException("Unable to rename " + output.getPath());
+            }
+            generations.add(generation);
+        }
+        return generations;
+    }
+
+    // Newest generation with count items of the image, or -1
+    private static int newest(List<Map<String, Integer>> generations, String NameOfFile, int count) {
+        for (int generation = generations.size() - 1; generation >= 0; generation--) {
+            Integer items = generations.get(generation).get(NameOfFile);
+            if (items != null && items == count) {
+                return generation;
+            }
+        }
+        return -1;
+    }
+
+    private static void increment(Map<String, Integer> counts, String NameOfFile, int change) {
+        if (NameOfFile != null) {
+            Integer n = counts.get(NameOfFile);
+            counts.put(NameOfFile, n == null ? change : n + change);
+        }
+    }
+
+    private static boolean endsWithNewLine(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() == 0) {
+                return true;
+            }
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        }
+    }
+
+    // File name of a row "name Particle_1 Area_(pixels)_= ..."
+    private static String owner(String line) {
+        int end = line.lastIndexOf(PARTICLE);
+        return end < 0 ? null : line.substring(0, end);
+    }
+
+    // File name of an entry "name_0001.roi"
+    private static String owner(ZipEntry entry) {
+        int end = entry.getName().lastIndexOf('_');
+        return end < 0 ? null : entry.getName().substring(0, end);
+    }
+
+    // Reads the data of the current entry, false when it was cut by an interrupted run
+    private boolean skip(ZipInputStream zip) {
+        try {
+            while (zip.read(buffer) > 0) {
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Next entry, or null also at the end of an archive cut by an interrupted run
+    private static ZipEntry nextEntry(ZipInputStream zip) {
+        try {
+            return zip.getNextEntry();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void close(Closeable stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            IJ.log("Unable to close previous results: " + e.getMessage());
+        }
+    }
+}
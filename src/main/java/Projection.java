@@ -0,0 +1,131 @@
+/**
+ * Row and column profiles of an 8-bit image
+ *
+ * Description: Average color of every row and every column (Step 3 of Grid_Ruler), computed from the pixel array
+ * in one row-major pass. Rows can be split into bands analysed on several threads. The bands and the sums of rows
+ * are also used by MappedTiff, which reads the rows of large files from a mapping, and by GridCache.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.util.ThreadUtil;
+
+
+class Projection {
+    final int[] rowColors; // average color of rows
+    final int[] colColors; // average color of columns
+
+    private Projection(int[] rowColors, int[] colColors) {
+        this.rowColors = rowColors;
+        this.colColors = colColors;
+    }
+
+    static Projection of(final byte[] pixels, final int width, final int height, int threads) {
+        final int[] rowSums = new int[height];
+        int bands = bands(threads, height);
+        final long[][] colSums = new long[bands][];
+        inBands(bands, height, (band, from, to) -> {
+            Accumulator sums = new Accumulator(width);
+            for (int row = from; row < to; row++) {
+                rowSums[row] = sums.add(pixels, row * width);
+            }
+            colSums[band] = sums.columnSums();
+        });
+        return of(rowSums, colSums, width, height);
+    }
+
+    // Profiles from the sums of rows and the sums of columns of every band
+    static Projection of(int[] rowSums, long[][] colSums, int width, int height) {
+        int bands = colSums.length;
+        int[] rowColors = new int[height];
+        for (int row = 0; row < height; row++) {
+            rowColors[row] = rowSums[row] / width;
+        }
+        int[] colColors = new int[width];
+        for (int col = 0; col < width; col++) {
+            long sumCurrentCol = 0;
+            for (int band = 0; band < bands; band++) {
+                sumCurrentCol += colSums[band][col];
+            }
+            colColors[col] = (int) (sumCurrentCol / height);
+        }
+        return new Projection(rowColors, colColors);
+    }
+
+    // Number of bands of rows for the threads, small images are not worth splitting
+    static int bands(int threads, int height) {
+        return Math.max(1, Math.min(threads, height / 64));
+    }
+
+    // Work on rows from..to-1 of one band
+    interface BandTask {
+        void run(int band, int from, int to);
+    }
+
+    // Runs the task on every band, each on its own thread; an exception of a band is thrown again here
+    static void inBands(int bands, int height, final BandTask task) {
+        final RuntimeException[] failure = new RuntimeException[bands];
+        Thread[] workers = ThreadUtil.createThreadArray(bands);
+        for (int t = 0; t < bands; t++) {
+            final int band = t;
+            final int from = (int) ((long) height * t / bands);
+            final int to = (int) ((long) height * (t + 1) / bands);
+            workers[t] = new Thread(() -> {
+                try {
+                    task.run(band, from, to);
+                } catch (RuntimeException e) {
+                    failure[band] = e;
+                }
+            });
+        }
+        if (bands == 1) {
+            workers[0].run();
+        } else {
+            ThreadUtil.startAndJoin(workers);
+        }
+        for (RuntimeException e : failure) {
+            if (e != null) {
+                throw e;
+            }
+        }
+    }
+
+    // Sum of width pixels from offset
+    static int rowSum(byte[] pixels, int offset, int width) {
+        int sumCurrentRow = 0;
+        for (int col = 0; col < width; col++) {
+            sumCurrentRow += pixels[offset + col] & 0xff;
+        }
+        return sumCurrentRow;
+    }
+
+    // Sums of the rows of one band and their contribution to the sums of columns
+    static class Accumulator {
+        private final int[] colPart; // int is safe for up to 8M rows of one band
+
+        Accumulator(int width) {
+            colPart = new int[width];
+        }
+
+        // Adds the row of width pixels starting at offset, returns the sum of the row
+        int add(byte[] pixels, int offset) {
+            int sumCurrentRow = 0;
+            for (int col = 0; col < colPart.length; col++) {
+                int value = pixels[offset + col] & 0xff;
+                sumCurrentRow += value;
+                colPart[col] += value;
+            }
+            return sumCurrentRow;
+        }
+
+        long[] columnSums() {
+            long[] colSums = new long[colPart.length];
+            for (int col = 0; col < colPart.length; col++) {
+                colSums[col] = colPart[col];
+            }
+            return colSums;
+        }
+    }
+}
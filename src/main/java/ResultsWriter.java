@@ -0,0 +1,149 @@
+/**
+ * Output files of Grid_Ruler
+ *
+ * Description: Append-only writer of particle-count.csv, Particle-parametres.csv and of the ROI archive log.zip.
+ * Every file is opened once per batch, rows of one image are appended and flushed together,
+ * so the amount of written data grows linearly with the number of particles. Rows and ROIs of images reused from
+ * the manifest are copied from the outputs of previous runs.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.IJ;
+import ij.gui.Roi;
+import ij.io.RoiEncoder;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+
+class ResultsWriter implements Closeable {
+    private final String Particle_path; // particle-count.csv
+    private final String savePath; // Particle-parametres.csv
+    private final String txtPath; // log.zip
+    private BufferedWriter countWriter;
+    private BufferedWriter particleWriter;
+    private ZipOutputStream roiZip;
+    private DataOutputStream roiOut;
+    private RoiEncoder roiEncoder;
+    private boolean failed = false; // the first I/O error is reported, the rest of the batch is still analysed
+    private final PreviousResults previous; // outputs of previous runs, or null
+
+    ResultsWriter(String folderPath, String Result_folder) {
+        this(folderPath, Result_folder, null);
+    }
+
+    ResultsWriter(String folderPath, String Result_folder, PreviousResults previous) {
+        this.previous = previous;
+        Particle_path = Result_folder + File.separator + "particle-count.csv";
+        savePath = Result_folder + File.separator + "Particle-parametres.csv";
+        txtPath = folderPath + File.separator + "log.zip";
+    }
+
+    // Appends the count, the particle parametres and the ROIs of one image, returns false when they were not written
+    boolean write(ImageResult result) {
+        if (failed) {
+            return false;
+        }
+        if (!result.gridFound) {
+            return true;
+        }
+        String NameOfFile = result.NameOfFile;
+        try {
+            if (countWriter == null) {
+                countWriter = new BufferedWriter(new FileWriter(Particle_path));
+                countWriter.write("File" + "\t" + "Counted particles" + "\n");
+            }
+            countWriter.write(NameOfFile + "\t" + result.count + "\n");
+            countWriter.flush();
+
+            if (result.count == 0) {
+                return true;
+            }
+            if (particleWriter == null) {
+                particleWriter = new BufferedWriter(new FileWriter(savePath));
+            }
+            if (result.cached) {
+                if (!previous.copyParticles(NameOfFile, result.count, particleWriter)) {
+                    IJ.log("Particles of " + NameOfFile + " not found in the previous results");
+                }
+                particleWriter.flush();
+                copyRois(NameOfFile, result.count);
+                return true;
+            }
+            for (int i = 0; i < result.count; i++) {
+                particleWriter.write(NameOfFile + " Particle_" + (i + 1) + " Area_(pixels)_= " + result.area[i] + " Centroid= " + result.x[i] + " " + result.y[i] + "\n");
+            }
+            particleWriter.flush();
+
+            if (result.rois.length == 0) {
+                return true;
+            }
+            openRois();
+            for (int i = 0; i < result.rois.length; i++) {
+                Roi roi = result.rois[i];
+                String label = roi.getName() != null ? roi.getName() : String.format("%04d", i + 1);
+                roiZip.putNextEntry(new ZipEntry(NameOfFile + "_" + label + ".roi"));
+                roiEncoder.write(roi);
+                roiOut.flush();
+            }
+            roiZip.closeEntry(); // the archive can be read up to the last image when a run is interrupted
+            roiZip.flush();
+        } catch (IOException e) {
+            failed = true;
+            IJ.log("Unable to write results: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    // ROIs of a reused image, written only when ROIs were saved in the previous run (same parametres)
+    private void copyRois(String NameOfFile, int count) throws IOException {
+        if (!previous.hasRois(NameOfFile, count)) {
+            return;
+        }
+        openRois();
+        roiOut.flush();
+        previous.copyRois(NameOfFile, count, roiZip);
+        roiZip.closeEntry();
+        roiZip.flush();
+    }
+
+    private void openRois() throws IOException {
+        if (roiZip == null) {
+            roiZip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(txtPath)));
+            roiOut = new DataOutputStream(new BufferedOutputStream(roiZip));
+            roiEncoder = new RoiEncoder(roiOut);
+        }
+    }
+
+    public void close() {
+        close(countWriter);
+        close(particleWriter);
+        close(roiOut);
+        countWriter = null;
+        particleWriter = null;
+        roiOut = null;
+        roiZip = null;
+    }
+
+    private void close(Closeable stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            IJ.log("Unable to close results: " + e.getMessage());
+        }
+    }
+}
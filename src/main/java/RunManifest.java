@@ -0,0 +1,145 @@
+/**
+ * Manifest of processed images for Grid_Ruler
+ *
+ * Description: Results/manifest.csv lists every analysed image with its size, modification time, the signature of the
+ * analysis parametres and the result (grid found, number of particles). An image is appended as soon as its results are
+ * written, so an interrupted batch resumes after the last completed image, and unchanged images are not analysed again.
+ * The last line of an image wins; the file is compacted when it is opened.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.IJ;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+class RunManifest implements Closeable {
+    private static final String HEADER = "Path\tSize\tModified\tParametres\tGrid found\tCounted particles";
+    private static final int PATH = 0, SIZE = 1, MODIFIED = 2, PARAMETRES = 3, GRID_FOUND = 4, COUNT = 5, FIELDS = 6;
+
+    private final String manifestPath;
+    private final String signature;
+    private final Map<String, String[]> entries = new LinkedHashMap<String, String[]>(); // path -> last line of the image
+    private BufferedWriter writer;
+    private boolean failed = false;
+
+    RunManifest(String Result_folder, String signature) {
+        this.manifestPath = Result_folder + File.separator + "manifest.csv";
+        this.signature = signature;
+        load();
+    }
+
+    // Result of an unchanged image analysed with the same parametres, or null
+    ImageResult cached(File file) {
+        String[] entry = entries.get(file.getAbsolutePath());
+        if (entry == null || !entry[PARAMETRES].equals(signature)
+                || !entry[SIZE].equals(Long.toString(file.length()))
+                || !entry[MODIFIED].equals(Long.toString(file.lastModified()))) {
+            return null;
+        }
+        ImageResult result = new ImageResult(file.getName());
+        result.cached = true;
+        result.gridFound = Boolean.parseBoolean(entry[GRID_FOUND]);
+        result.count = Integer.parseInt(entry[COUNT]);
+        return result;
+    }
+
+    // Records an image whose results were written
+    void add(File file, ImageResult result) {
+        String path = file.getAbsolutePath();
+        if (failed || path.indexOf('\t') >= 0 || path.indexOf('\n') >= 0) {
+            return; // such path can not be stored, the image is analysed again next time
+        }
+        String[] entry = {path, Long.toString(file.length()), Long.toString(file.lastModified()), signature,
+                Boolean.toString(result.gridFound), Integer.toString(result.count)};
+        entries.put(path, entry);
+        try {
+            if (writer == null) {
+                boolean created = !new File(manifestPath).exists();
+                writer = new BufferedWriter(new FileWriter(manifestPath, true));
+                if (created) {
+                    writer.write(HEADER + "\n");
+                }
+            }
+            writer.write(line(entry));
+            writer.flush();
+        } catch (IOException e) {
+            failed = true;
+            IJ.log("Unable to write the manifest: " + e.getMessage());
+        }
+    }
+
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            IJ.log("Unable to close the manifest: " + e.getMessage());
+        }
+        writer = null;
+    }
+
+    private void load() {
+        File file = new File(manifestPath);
+        if (!file.exists()) {
+            return;
+        }
+        String[] lines;
+        try {
+            lines = new String(Files.readAllBytes(file.toPath())).split("\n", -1);
+        } catch (IOException e) {
+            IJ.log("Unable to read the manifest, all images are analysed: " + e.getMessage());
+            return;
+        }
+        // The first line is the header, the last one is empty or cut by an interrupted run
+        for (int i = 1; i < lines.length - 1; i++) {
+            String[] entry = lines[i].split("\t", -1);
+            if (entry.length == FIELDS && isNumber(entry[SIZE]) && isNumber(entry[MODIFIED]) && isNumber(entry[COUNT])
+                    && entry[COUNT].length() < 10) {
+                entries.put(entry[PATH], entry);
+            }
+        }
+
+        // Compaction: one line per image
+        File compacted = new File(manifestPath + ".tmp");
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(compacted))) {
+            out.write(HEADER + "\n");
+            for (String[] entry : entries.values()) {
+                out.write(line(entry));
+            }
+        } catch (IOException e) {
+            compacted.delete();
+            return; // the manifest is only longer than needed
+        }
+        try {
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            compacted.delete();
+        }
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String line(String[] entry) {
+        return String.join("\t", entry) + "\n";
+    }
+}
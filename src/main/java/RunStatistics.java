@@ -0,0 +1,177 @@
+/**
+ * Stage statistics of a batch for Grid_Ruler
+ *
+ * Description: Writes the time and the allocation of every step of every analysed image (StageTimer) to
+ * Results/stage-times.csv, one row per image appended as soon as its results are written, and at the end of the batch
+ * a summary of the steps (median, 95th percentile and maximum time, allocated bytes) with the particles counted per
+ * second to Results/stage-summary.csv and Results/stage-summary.json. Images taken from the manifest are not included.
+ * Bytes are -1 when the JVM does not report allocation.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.IJ;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+
+class RunStatistics implements Closeable {
+    private final String timesPath; // stage-times.csv
+    private final String summaryPath; // stage-summary.csv
+    private final String jsonPath; // stage-summary.json
+    private final List<long[]> nanos = new ArrayList<long[]>(); // per image, per stage
+    private final List<long[]> bytes = new ArrayList<long[]>();
+    private long particles = 0;
+    private BufferedWriter timesWriter;
+    private boolean failed = false;
+
+    RunStatistics(String Result_folder) {
+        timesPath = Result_folder + File.separator + "stage-times.csv";
+        summaryPath = Result_folder + File.separator + "stage-summary.csv";
+        jsonPath = Result_folder + File.separator + "stage-summary.json";
+    }
+
+    // Appends the steps of an analysed image
+    void add(ImageResult result) {
+        StageTimer timer = result.timer;
+        if (timer == null) {
+            return;
+        }
+        nanos.add(timer.nanos.clone());
+        bytes.add(timer.bytes.clone());
+        particles += result.count;
+        if (failed) {
+            return;
+        }
+        try {
+            openTimes();
+            StringBuilder row = new StringBuilder(result.NameOfFile).append('\t').append(result.count);
+            for (int stage = 0; stage < StageTimer.STAGES.length; stage++) {
+                row.append('\t').append(ms(timer.nanos[stage])).append('\t').append(timer.bytes[stage]);
+            }
+            row.append('\t').append(ms(timer.totalNanos())).append('\t').append(timer.totalBytes())
+                    .append('\t').append(perSecond(result.count, timer.totalNanos()));
+            timesWriter.write(row + "\n");
+            timesWriter.flush();
+        } catch (IOException e) {
+            failed = true;
+            IJ.log("Unable to write stage times: " + e.getMessage());
+        }
+    }
+
+    // Writes the summary of the batch, wallNanos is the time of the whole batch
+    // When no image was analysed, the files hold no stages, so files of a previous run are not left behind
+    void summarize(long wallNanos) {
+        if (!failed) {
+            try {
+                openTimes();
+                timesWriter.flush();
+            } catch (IOException e) {
+                failed = true;
+                IJ.log("Unable to write stage times: " + e.getMessage());
+            }
+        }
+        int images = nanos.size();
+        StringBuilder csv = new StringBuilder("Stage\tImages\tMedian (ms)\tP95 (ms)\tMax (ms)\tTotal (bytes)\tMean (bytes)\n");
+        StringBuilder json = new StringBuilder("{\n  \"images\": ").append(images)
+                .append(",\n  \"particles\": ").append(particles)
+                .append(",\n  \"wallMs\": ").append(ms(wallNanos))
+                .append(",\n  \"particlesPerSecond\": ").append(perSecond(particles, wallNanos))
+                .append(",\n  \"stages\": [");
+        for (int stage = 0; images > 0 && stage <= StageTimer.STAGES.length; stage++) {
+            boolean total = stage == StageTimer.STAGES.length;
+            String name = total ? "Total" : StageTimer.STAGES[stage];
+            long[] times = new long[images];
+            long allocated = 0;
+            for (int i = 0; i < images; i++) {
+                times[i] = total ? sum(nanos.get(i)) : nanos.get(i)[stage];
+                long b = total ? sum(bytes.get(i)) : bytes.get(i)[stage];
+                allocated = allocated < 0 || b < 0 ? -1 : allocated + b;
+            }
+            Arrays.sort(times);
+            String median = ms(percentile(times, 0.5));
+            String p95 = ms(percentile(times, 0.95));
+            String max = ms(times[images - 1]);
+            long mean = allocated < 0 ? -1 : allocated / images;
+            csv.append(name).append('\t').append(images).append('\t').append(median).append('\t').append(p95)
+                    .append('\t').append(max).append('\t').append(allocated).append('\t').append(mean).append('\n');
+            json.append(stage == 0 ? "\n" : ",\n").append("    {\"stage\": \"").append(name)
+                    .append("\", \"medianMs\": ").append(median).append(", \"p95Ms\": ").append(p95)
+                    .append(", \"maxMs\": ").append(max).append(", \"totalBytes\": ").append(allocated)
+                    .append(", \"meanBytes\": ").append(mean).append('}');
+        }
+        csv.append("Wall time (ms)\t").append(ms(wallNanos)).append('\n');
+        csv.append("Particles\t").append(particles).append('\n');
+        csv.append("Particles per second\t").append(perSecond(particles, wallNanos)).append('\n');
+        json.append(images > 0 ? "\n  ]\n}\n" : "]\n}\n");
+        write(summaryPath, csv.toString());
+        write(jsonPath, json.toString());
+    }
+
+    private void openTimes() throws IOException {
+        if (timesWriter != null) {
+            return;
+        }
+        timesWriter = new BufferedWriter(new FileWriter(timesPath));
+        StringBuilder header = new StringBuilder("File\tCounted particles");
+        for (String stage : StageTimer.STAGES) {
+            header.append('\t').append(stage).append(" (ms)\t").append(stage).append(" (bytes)");
+        }
+        timesWriter.write(header + "\tTotal (ms)\tTotal (bytes)\tParticles per second\n");
+    }
+
+    public void close() {
+        if (timesWriter == null) {
+            return;
+        }
+        try {
+            timesWriter.close();
+        } catch (IOException e) {
+            IJ.log("Unable to close stage times: " + e.getMessage());
+        }
+        timesWriter = null;
+    }
+
+    private static void write(String path, String text) {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(path))) {
+            out.write(text);
+        } catch (IOException e) {
+            IJ.log("Unable to write the stage summary: " + e.getMessage());
+        }
+    }
+
+    // Nearest-rank percentile of sorted values
+    private static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    // Sum of the stages, -1 when allocation is not reported
+    private static long sum(long[] values) {
+        long total = 0;
+        for (long v : values) {
+            if (v < 0) {
+                return -1;
+            }
+            total += v;
+        }
+        return total;
+    }
+
+    private static String ms(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String perSecond(long count, long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos > 0 ? count * 1e9 / nanos : 0);
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Timing of the analysis steps of one image for Grid_Ruler
+ *
+ * Description: Lap timer over the steps of ImageAnalysis. lap(stage) adds the time and the bytes allocated by the
+ * current thread since the previous lap (or mark) to the stage. Allocation is read from the JVM
+ * (com.sun.management.ThreadMXBean); where it is not supported, bytes are reported as -1. Work done on other threads
+ * (bands of the projection) is timed but its allocation is not counted.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import java.lang.management.ManagementFactory;
+
+
+class StageTimer {
+    static final int OPEN = 0, GRAYSCALE = 1, GRID_CACHE = 2, PROJECTION = 3, DETECTION = 4, MASKING = 5,
+            CALIBRATION = 6, THRESHOLDING = 7, MORPHOLOGY = 8, SAVING = 9, PARTICLES = 10, RESULTS = 11;
+    static final String[] STAGES = {"Opening", "Grayscale", "Grid cache", "Projection", "Grid detection", "Masking",
+            "Calibration", "Thresholding", "Morphology", "Saving images", "Particle analysis", "Results"};
+
+    private static final com.sun.management.ThreadMXBean threads = allocationBean();
+
+    final long[] nanos = new long[STAGES.length];
+    final long[] bytes = new long[STAGES.length];
+    private long lastNanos;
+    private long lastBytes;
+
+    // Start of timing on the current thread
+    void mark() {
+        lastNanos = System.nanoTime();
+        lastBytes = allocatedBytes();
+    }
+
+    // Time and allocation since the previous lap or mark are added to the stage
+    void lap(int stage) {
+        long now = System.nanoTime();
+        long allocated = allocatedBytes();
+        nanos[stage] += now - lastNanos;
+        bytes[stage] = allocated < 0 ? -1 : bytes[stage] + allocated - lastBytes;
+        lastNanos = now;
+        lastBytes = allocated;
+    }
+
+    long totalNanos() {
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        return total;
+    }
+
+    long totalBytes() {
+        long total = 0;
+        for (long b : bytes) {
+            if (b < 0) {
+                return -1;
+            }
+            total += b;
+        }
+        return total;
+    }
+
+    private static long allocatedBytes() {
+        return threads != null ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+                com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) bean;
+                allocation.setThreadAllocatedMemoryEnabled(true);
+                return allocation;
+            }
+        } catch (LinkageError | UnsupportedOperationException | SecurityException e) {
+            // JVM without com.sun.management, allocation is not reported
+        }
+        return null;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Regression test of BatchRunner
+ *
+ * Description: The output files of a batch must not depend on the number of threads nor on the way images are read.
+ * A folder of generated images is analysed with 1 thread, with more threads, and with more threads and every file
+ * read by MappedTiff; the result files, the saved images and the entries of the ROI archive are compared byte by byte.
+ * The manifest and the stage times differ between runs and are not compared.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class BatchRunnerTest {
+    private static final String OPTIONS = "grid=100 squares=4 min=4 max=9 save_original save_grayscale save_binary save_rois";
+
+    @TempDir
+    File folder;
+
+    @Test
+    void outputsDoNotDependOnThreads() throws IOException {
+        Map<String, byte[]> expected = run("threads=1 mapped=1024");
+        assertTrue(expected.containsKey("log.zip/chamber_0000.tiff_0001.roi"), "no ROI written");
+        for (String options : new String[] {"threads=4 mapped=1024", "threads=4 mapped=0"}) {
+            Map<String, byte[]> outputs = run(options);
+            assertEquals(expected.keySet(), outputs.keySet(), options + ": output files");
+            for (Map.Entry<String, byte[]> file : expected.entrySet()) {
+                assertArrayEquals(file.getValue(), outputs.get(file.getKey()), options + ": " + file.getKey());
+            }
+        }
+    }
+
+    // Analyses the generated images in a new folder, returns its outputs
+    private Map<String, byte[]> run(String options) throws IOException {
+        File run = new File(folder, options.replace(' ', '_').replace('=', '-'));
+        run.mkdir();
+        ChamberImageGenerator generator = new ChamberImageGenerator();
+        for (int i = 0; i < ChamberSamples.IMAGES * 2; i++) {
+            ImagePlus imp = new ImagePlus("chamber", generator.generate(ChamberSamples.SEED, i));
+            new FileSaver(imp).saveAsTiff(new File(run, String.format("chamber_%04d.tiff", i)).getPath());
+        }
+        Grid_Ruler.process(AnalysisSettings.fromOptions(OPTIONS + " " + options), run.getPath());
+        return outputs(run);
+    }
+
+    // Result files of a run and the entries of its ROI archive
+    private static Map<String, byte[]> outputs(File run) throws IOException {
+        Map<String, byte[]> outputs = new LinkedHashMap<String, byte[]>();
+        File[] results = new File(run, "Results").listFiles();
+        if (results != null) {
+            Arrays.sort(results);
+            for (File file : results) {
+                if (file.isFile() && !file.getName().startsWith("stage-") && !file.getName().startsWith("manifest")) {
+                    outputs.put(file.getName(), Files.readAllBytes(file.toPath()));
+                }
+            }
+        }
+        File zip = new File(run, "log.zip");
+        if (zip.isFile()) {
+            try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+                for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                    outputs.put("log.zip/" + entry.getName(), read(in));
+                }
+            }
+        }
+        return outputs;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Regression test of Binarizer
+ *
+ * Description: Binarization and pre-processing (Step 11 - 12) must give the same mask and LUT as the ImageJ commands of
+ * the original plugin: MaxEntropy threshold, Convert to Mask, Dilate, Fill Holes, Watershed and Erode. Compared on the
+ * masked crops of generated images, also with an inverted LUT, for both "Black background" and "Pad edges" settings.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+
+class BinarizerTest {
+    private final boolean blackBackground = Prefs.blackBackground;
+    private final boolean padEdges = Prefs.padEdges;
+
+    static List<ChamberSamples.Sample> samples() {
+        return ChamberSamples.withGrid();
+    }
+
+    @AfterEach
+    void restorePrefs() {
+        Prefs.blackBackground = blackBackground;
+        Prefs.padEdges = padEdges;
+    }
+
+    @ParameterizedTest
+    @MethodSource("samples")
+    void matchesImageJCommands(ChamberSamples.Sample sample) {
+        ByteProcessor masked = sample.masked();
+        ByteProcessor inverted = (ByteProcessor) masked.duplicate();
+        inverted.invertLut();
+        Binarizer binarizer = new Binarizer();
+        for (int prefs = 0; prefs < 4; prefs++) {
+            Prefs.blackBackground = (prefs & 1) != 0;
+            Prefs.padEdges = (prefs & 2) != 0;
+            for (ByteProcessor gray : new ByteProcessor[] {masked, inverted}) {
+                ImagePlus imp = new ImagePlus("converted image", gray.duplicate());
+                IJ.setAutoThreshold(imp, "MaxEntropy");
+                IJ.runPlugIn(imp, "ij.plugin.Thresholder", "mask");
+                IJ.runPlugIn(imp, "ij.plugin.filter.Binary", "dilate");
+                IJ.runPlugIn(imp, "ij.plugin.filter.Binary", "fill");
+                IJ.runPlugIn(imp, "ij.plugin.filter.EDM", "watershed");
+                IJ.runPlugIn(imp, "ij.plugin.filter.Binary", "erode");
+                ImageProcessor expected = imp.getProcessor();
+                ByteProcessor binary = binarizer.binarize(gray);
+                String name = sample + (gray == inverted ? ", inverted LUT" : "") + ", black background "
+                        + Prefs.blackBackground + ", pad edges " + Prefs.padEdges;
+                assertArrayEquals((byte[]) expected.getPixels(), (byte[]) binary.getPixels(), name);
+                assertEquals(expected.isInvertedLut(), binary.isInvertedLut(), name + ", LUT");
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Generated images of the regression tests of Grid_Ruler
+ *
+ * Description: Three series of synthetic chamber images (ChamberImageGenerator) shared by the tests: Bürker style
+ * 1600 x 1400, Neubauer style with more noise and a small rotation, and a portrait Bürker series rotated the other way
+ * with smaller and denser particles. Every image comes with the inputs of the steps of the analysis. The images are
+ * generated once per test run, the number of images per series is set by -Dimages=2.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+final class ChamberSamples {
+    static final long SEED = 1;
+    static final int IMAGES = Integer.getInteger("images", 2); // images of every series
+    static final int NUM_SQUARES = 4;
+    private static List<Sample> samples;
+
+    private ChamberSamples() {
+    }
+
+    // One generated image with the inputs of the steps of the analysis
+    static final class Sample {
+        String name;
+        ColorProcessor original;
+        ByteProcessor converted;
+        Projection projection;
+        GridDetector.Grid grid; // null when no grid was recognised
+
+        // Grid lines masked and cropped, the input of the binarization
+        ByteProcessor masked() {
+            return GridMask.maskedCrop((byte[]) converted.getPixels(), converted.getWidth(), 0, 0, grid,
+                    converted.getColorModel());
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    static List<ChamberImageGenerator> series() {
+        List<ChamberImageGenerator> series = new ArrayList<ChamberImageGenerator>();
+        series.add(new ChamberImageGenerator());
+        ChamberImageGenerator neubauer = new ChamberImageGenerator();
+        neubauer.style = ChamberImageGenerator.NEUBAUER;
+        neubauer.width = 1000;
+        neubauer.height = 800;
+        neubauer.spacing = 80;
+        neubauer.noise = 10;
+        neubauer.rotation = 0.4;
+        series.add(neubauer);
+        ChamberImageGenerator rotated = new ChamberImageGenerator();
+        rotated.width = 900;
+        rotated.height = 1100;
+        rotated.spacing = 90;
+        rotated.noise = 3;
+        rotated.rotation = -0.8;
+        rotated.particles = 6;
+        rotated.minRadius = 6;
+        rotated.maxRadius = 12;
+        series.add(rotated);
+        return series;
+    }
+
+    static synchronized List<Sample> all() {
+        if (samples != null) {
+            return samples;
+        }
+        List<Sample> generated = new ArrayList<Sample>();
+        List<ChamberImageGenerator> series = series();
+        for (int s = 0; s < series.size(); s++) {
+            for (int i = 0; i < IMAGES; i++) {
+                Sample sample = new Sample();
+                sample.name = "series " + s + " image " + i;
+                sample.original = series.get(s).generate(SEED, i);
+                sample.converted = (ByteProcessor) sample.original.convertToByte(true);
+                sample.projection = Projection.of((byte[]) sample.converted.getPixels(),
+                        sample.converted.getWidth(), sample.converted.getHeight(), 1);
+                sample.grid = GridDetector.detect(sample.projection.rowColors, sample.projection.colColors, NUM_SQUARES);
+                generated.add(sample);
+            }
+        }
+        samples = Collections.unmodifiableList(generated);
+        return samples;
+    }
+
+    // Images with a recognised grid
+    static List<Sample> withGrid() {
+        List<Sample> found = new ArrayList<Sample>();
+        for (Sample sample : all()) {
+            if (sample.grid != null) {
+                found.add(sample);
+            }
+        }
+        return found;
+    }
+
+    // The first image of every series
+    static List<Sample> firstOfSeries() {
+        List<Sample> first = new ArrayList<Sample>();
+        for (int i = 0; i < all().size(); i += IMAGES) {
+            first.add(all().get(i));
+        }
+        return first;
+    }
+}
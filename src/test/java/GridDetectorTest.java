@@ -0,0 +1,141 @@
+/**
+ * Regression test of GridDetector
+ *
+ * Description: Grid detection (Step 4 - 8) must select the same square and contrast level as the sweep over the levels
+ * z = 10 .. 2 of the original plugin, copied below. Compared on the profiles of generated images with 1 to 5 squares,
+ * and on random parts of the profiles (a smaller field of view) with a random number of squares.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+
+class GridDetectorTest {
+    static List<ChamberSamples.Sample> samples() {
+        return ChamberSamples.all();
+    }
+
+    @Test
+    void recognisesGridOfGeneratedImages() {
+        assertFalse(ChamberSamples.withGrid().isEmpty(), "no grid recognised in the generated images");
+    }
+
+    @ParameterizedTest
+    @MethodSource("samples")
+    void selectsSameSquareAsOriginalSweep(ChamberSamples.Sample sample) {
+        int[] rows = sample.projection.rowColors;
+        int[] cols = sample.projection.colColors;
+        for (int num_squares = 1; num_squares <= 5; num_squares++) {
+            compare(rows, cols, num_squares, sample + ", squares " + num_squares);
+        }
+        Random random = new Random(sample.name.hashCode());
+        for (int k = 0; k < 20; k++) {
+            int y = random.nextInt(rows.length / 2);
+            int x = random.nextInt(cols.length / 2);
+            int[] rowPart = Arrays.copyOfRange(rows, y, y + rows.length / 4 + random.nextInt(rows.length / 4));
+            int[] colPart = Arrays.copyOfRange(cols, x, x + cols.length / 4 + random.nextInt(cols.length / 4));
+            int num_squares = 1 + random.nextInt(5);
+            compare(rowPart, colPart, num_squares, sample + ", rows " + y + " + " + rowPart.length + ", columns " + x
+                    + " + " + colPart.length + ", squares " + num_squares);
+        }
+    }
+
+    private static void compare(int[] rows, int[] cols, int num_squares, String name) {
+        int[] expected = sweep(rows, cols, num_squares);
+        GridDetector.Grid grid = GridDetector.detect(rows, cols, num_squares);
+        if (expected == null) {
+            assertNull(grid, name);
+        } else {
+            assertArrayEquals(expected, grid == null ? null
+                    : new int[] {grid.selectedX1, grid.selectedX2, grid.selectedY1, grid.selectedY2, grid.z}, name);
+        }
+    }
+
+    // Grid detection of the original plugin: {selectedX1, selectedX2, selectedY1, selectedY2, z} of the last accepted level
+    static int[] sweep(int[] rowColors, int[] colColors, int num_squares) {
+        int height = rowColors.length;
+        int width = colColors.length;
+        int[] selected = null;
+        List<Integer> grid_linesX = new ArrayList<Integer>();
+        List<Integer> grid_linesY = new ArrayList<Integer>();
+        List<Integer> square_linesX = new ArrayList<Integer>();
+        List<Integer> square_linesY = new ArrayList<Integer>();
+        List<Double> dist_X = new ArrayList<Double>();
+        List<Double> dist_Y = new ArrayList<Double>();
+        for (int z = 10; z > 1; z--) {
+            for (int row = 0; row < height - 1; row++) {
+                if (rowColors[row] > rowColors[row + 1] + z) {
+                    grid_linesY.add(row);
+                }
+            }
+            for (int col = 0; col < width - 1; col++) {
+                if (colColors[col] > colColors[col + 1] + z) {
+                    grid_linesX.add(col);
+                }
+            }
+            if (!grid_linesY.isEmpty() && !grid_linesX.isEmpty()) {
+                for (int i = 0; i < grid_linesY.size() - 1; i++) {
+                    for (int j = 0; j < grid_linesX.size() - 1; j++) {
+                        double difX = (double) grid_linesX.get(j + 1) - (double) grid_linesX.get(j);
+                        double difY = (double) grid_linesY.get(i + 1) - (double) grid_linesY.get(i);
+                        if ((difX / difY) > 0.8 && (difX / difY) < 1.2) {
+                            dist_X.add(difX);
+                            dist_Y.add(difY);
+                        }
+                    }
+                }
+            }
+            if (!grid_linesY.isEmpty() && !dist_Y.isEmpty()) {
+                for (int i = 0; i < grid_linesY.size() - 1; i++) {
+                    double maxdifY = Collections.max(dist_Y);
+                    double difY = (double) grid_linesY.get(i + 1) - (double) grid_linesY.get(i);
+                    if ((difY / maxdifY) > 0.75) {
+                        square_linesY.add(grid_linesY.get(i));
+                        square_linesY.add(grid_linesY.get(i + 1));
+                    }
+                }
+            }
+            if (!grid_linesX.isEmpty() && !dist_X.isEmpty()) {
+                for (int j = 0; j < grid_linesX.size() - 1; j++) {
+                    double maxdifX = Collections.max(dist_X);
+                    double difX = (double) grid_linesX.get(j + 1) - (double) grid_linesX.get(j);
+                    if ((difX / maxdifX) > 0.75) {
+                        square_linesX.add(grid_linesX.get(j));
+                        square_linesX.add(grid_linesX.get(j + 1));
+                    }
+                }
+            }
+            if (square_linesX.size() >= num_squares * 2 && square_linesY.size() >= num_squares * 2) {
+                int selectedX1 = square_linesX.get(0);
+                int selectedX2 = square_linesX.get((num_squares * 2) - 1);
+                int selectedY1 = square_linesY.get(0);
+                int selectedY2 = square_linesY.get((num_squares * 2) - 1);
+                double podil = (double) (selectedX2 - selectedX1) / (selectedY2 - selectedY1);
+                if (podil > 0.9 && podil < 1.2) {
+                    selected = new int[] {selectedX1, selectedX2, selectedY1, selectedY2, z};
+                }
+            }
+            grid_linesX.clear();
+            grid_linesY.clear();
+            dist_Y.clear();
+            dist_X.clear();
+            square_linesY.clear();
+            square_linesX.clear();
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Regression test of GridMask
+ *
+ * Description: Masking of the grid lines on the selected square (Step 9) must give the same pixels as the original
+ * plugin, which masked the lines of the level z in the whole image and cropped it afterwards. Compared for the whole
+ * image and for the region read by MappedTiff (the grid and one more row and column).
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+
+class GridMaskTest {
+    static List<ChamberSamples.Sample> samples() {
+        return ChamberSamples.withGrid();
+    }
+
+    @ParameterizedTest
+    @MethodSource("samples")
+    void masksAsWholeImageThenCrop(ChamberSamples.Sample sample) {
+        GridDetector.Grid grid = sample.grid;
+        int width = sample.converted.getWidth();
+        ImageProcessor old = sample.converted.duplicate();
+        for (int row : lines(sample.projection.rowColors, grid.z)) {
+            for (int col = 0; col < width; col++) {
+                if (old.getPixel(col, row) <= old.getPixel(col, row + 1) + grid.z) {
+                    old.putPixel(col, row, 255);
+                }
+            }
+        }
+        for (int col : lines(sample.projection.colColors, grid.z)) {
+            for (int row = 0; row < old.getHeight(); row++) {
+                if (old.getPixel(col, row) <= old.getPixel(col + 1, row) + grid.z) {
+                    old.putPixel(col, row, 255);
+                }
+            }
+        }
+        old.setRoi(grid.selectedX1, grid.selectedY1, grid.cropX(), grid.cropY());
+        byte[] expected = (byte[]) old.crop().getPixels();
+
+        byte[] pixels = (byte[]) sample.converted.getPixels();
+        ByteProcessor whole = GridMask.maskedCrop(pixels, width, 0, 0, grid, sample.converted.getColorModel());
+        assertArrayEquals(expected, (byte[]) whole.getPixels(), sample + ", whole image");
+
+        int regionWidth = grid.cropX() + 1;
+        int regionHeight = grid.cropY() + 1;
+        byte[] region = new byte[regionWidth * regionHeight];
+        for (int y = 0; y < regionHeight; y++) {
+            System.arraycopy(pixels, (grid.selectedY1 + y) * width + grid.selectedX1, region, y * regionWidth, regionWidth);
+        }
+        ByteProcessor part = GridMask.maskedCrop(region, regionWidth, grid.selectedX1, grid.selectedY1, grid, null);
+        assertArrayEquals(expected, (byte[]) part.getPixels(), sample + ", region");
+    }
+
+    // Lines of a profile at the level z, as found by the original plugin
+    private static List<Integer> lines(int[] colors, int z) {
+        List<Integer> lines = new ArrayList<Integer>();
+        for (int i = 0; i < colors.length - 1; i++) {
+            if (colors[i] > colors[i + 1] + z) {
+                lines.add(i);
+            }
+        }
+        return lines;
+    }
+}
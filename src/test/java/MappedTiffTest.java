@@ -0,0 +1,198 @@
+/**
+ * Regression test of MappedTiff
+ *
+ * Description: Profiles and regions read through the memory mapping must be the same as from the image opened by
+ * ImageJ (Opener) and converted to 8-bit. Compared on RGB with channels of different intensity, 8-bit and 16-bit files
+ * saved by ImageJ, a 16-bit file with a display range, and files of 7 rows per strip in both byte orders as written by
+ * acquisition software.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.io.Opener;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+
+class MappedTiffTest {
+    @TempDir
+    File folder;
+
+    static List<ChamberSamples.Sample> samples() {
+        return ChamberSamples.firstOfSeries();
+    }
+
+    @ParameterizedTest
+    @MethodSource("samples")
+    void readsAsOpener(ChamberSamples.Sample sample) throws IOException {
+        ColorProcessor rgb = tinted(sample.original);
+        ByteProcessor gray = sample.converted;
+        ShortProcessor wide = wide(gray);
+        ShortProcessor windowed = (ShortProcessor) wide.duplicate();
+        windowed.setMinAndMax(2000, 9000);
+        Map<String, ImageProcessor> files = new LinkedHashMap<String, ImageProcessor>();
+        files.put("rgb.tif", rgb);
+        files.put("gray8.tif", gray);
+        files.put("gray16.tif", wide);
+        files.put("gray16_window.tif", windowed);
+        for (Map.Entry<String, ImageProcessor> file : files.entrySet()) {
+            new FileSaver(new ImagePlus(file.getKey(), file.getValue())).saveAsTiff(new File(folder, file.getKey()).getPath());
+        }
+        for (ImageProcessor ip : new ImageProcessor[] {rgb, gray, wide}) {
+            for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                String name = ip.getBitDepth() + "bit_strips_" + (order == ByteOrder.BIG_ENDIAN ? "mm" : "ii") + ".tif";
+                writeStrips(new File(folder, name), ip, order);
+                files.put(name, ip);
+            }
+        }
+        Random random = new Random(sample.name.hashCode());
+        for (String name : files.keySet()) {
+            compare(new File(folder, name), sample + ", " + name, random);
+        }
+    }
+
+    private static void compare(File file, String name, Random random) throws IOException {
+        ImageProcessor original = new Opener().openImage(file.getPath()).getProcessor();
+        ImageProcessor converted = original.convertToByte(true);
+        int width = converted.getWidth();
+        int height = converted.getHeight();
+        Projection expected = Projection.of((byte[]) converted.getPixels(), width, height, 1);
+        MappedTiff tiff = MappedTiff.open(file);
+        assertNotNull(tiff, name + " not read by MappedTiff");
+        try {
+            for (int bands : new int[] {1, 3}) {
+                Projection projection = tiff.projection(bands);
+                assertArrayEquals(expected.rowColors, projection.rowColors, name + ", rows in " + bands + " bands");
+                assertArrayEquals(expected.colColors, projection.colColors, name + ", columns in " + bands + " bands");
+            }
+            for (int k = 0; k < 3; k++) {
+                int w = 1 + random.nextInt(width);
+                int h = 1 + random.nextInt(height);
+                int x = random.nextInt(width - w + 1);
+                int y = random.nextInt(height - h + 1);
+                ImageProcessor region = tiff.region(x, y, w, h);
+                original.setRoi(x, y, w, h);
+                converted.setRoi(x, y, w, h);
+                String where = name + ", region " + x + " " + y + " " + w + " x " + h;
+                assertArrayEquals(values(original.crop()), values(region), where);
+                assertArrayEquals((byte[]) converted.crop().getPixels(), (byte[]) region.convertToByte(true).getPixels(),
+                        where + " converted to 8-bit");
+            }
+        } finally {
+            tiff.close();
+        }
+    }
+
+    // Pixel values without the alpha byte of RGB
+    private static int[] values(ImageProcessor ip) {
+        int[] values = new int[ip.getPixelCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ip.get(i) & 0xffffff;
+        }
+        return values;
+    }
+
+    // Channels of different intensity, so the weights of the conversion to gray matter
+    private static ColorProcessor tinted(ColorProcessor original) {
+        ColorProcessor rgb = (ColorProcessor) original.duplicate();
+        int[] pixels = (int[]) rgb.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            int v = pixels[i] & 0xff;
+            pixels[i] = (v << 16) | ((v * 3 / 4) << 8) | (255 - (255 - v) / 2);
+        }
+        return rgb;
+    }
+
+    // 16-bit image with values outside of the 8-bit range
+    private static ShortProcessor wide(ByteProcessor gray) {
+        int width = gray.getWidth();
+        ShortProcessor wide = new ShortProcessor(width, gray.getHeight());
+        for (int i = 0; i < gray.getPixelCount(); i++) {
+            wide.set(i, gray.get(i) * 40 + ((i % width) ^ (i / width)) % 40);
+        }
+        wide.resetMinAndMax();
+        return wide;
+    }
+
+    // Uncompressed TIFF of 7 rows per strip with strips following each other
+    private static void writeStrips(File file, ImageProcessor ip, ByteOrder order) throws IOException {
+        int width = ip.getWidth();
+        int height = ip.getHeight();
+        int bytesPerPixel = ip.getBitDepth() == 24 ? 3 : ip.getBitDepth() / 8;
+        int rowsPerStrip = 7;
+        int strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+        int entries = 11;
+        int offsets = 8 + 2 + entries * 12 + 4;
+        int counts = offsets + 4 * strips;
+        int bits = counts + 4 * strips;
+        int data = bits + 8;
+        ByteBuffer tiff = ByteBuffer.allocate(data + width * height * bytesPerPixel).order(order);
+        tiff.put(order == ByteOrder.BIG_ENDIAN ? "MM".getBytes("US-ASCII") : "II".getBytes("US-ASCII"));
+        tiff.putShort((short) 42).putInt(8).putShort((short) entries);
+        entry(tiff, 256, 4, 1, width); // image width
+        entry(tiff, 257, 4, 1, height); // image length
+        entry(tiff, 258, 3, bytesPerPixel == 3 ? 3 : 1, bytesPerPixel == 3 ? bits : bytesPerPixel * 8); // bits per sample
+        entry(tiff, 259, 3, 1, 1); // no compression
+        entry(tiff, 262, 3, 1, bytesPerPixel == 3 ? 2 : 1); // RGB or black is zero
+        entry(tiff, 273, 4, strips, offsets); // strip offsets
+        entry(tiff, 277, 3, 1, bytesPerPixel == 3 ? 3 : 1); // samples per pixel
+        entry(tiff, 278, 4, 1, rowsPerStrip);
+        entry(tiff, 279, 4, strips, counts); // strip byte counts
+        entry(tiff, 284, 3, 1, 1); // chunky planar configuration
+        entry(tiff, 339, 3, 1, 1); // unsigned samples
+        tiff.putInt(0);
+        tiff.position(bits);
+        tiff.putShort((short) 8).putShort((short) 8).putShort((short) 8);
+        tiff.position(data);
+        for (int strip = 0; strip < strips; strip++) {
+            int rows = Math.min(rowsPerStrip, height - strip * rowsPerStrip);
+            tiff.putInt(offsets + 4 * strip, tiff.position());
+            tiff.putInt(counts + 4 * strip, rows * width * bytesPerPixel);
+            for (int y = strip * rowsPerStrip; y < strip * rowsPerStrip + rows; y++) {
+                for (int x = 0; x < width; x++) {
+                    int value = ip.get(x, y);
+                    if (bytesPerPixel == 3) {
+                        tiff.put((byte) (value >> 16)).put((byte) (value >> 8)).put((byte) value);
+                    } else if (bytesPerPixel == 2) {
+                        tiff.putShort((short) value);
+                    } else {
+                        tiff.put((byte) value);
+                    }
+                }
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(tiff.array());
+        }
+    }
+
+    private static void entry(ByteBuffer tiff, int tag, int type, int count, int value) {
+        tiff.putShort((short) tag).putShort((short) type).putInt(count);
+        if (type == 3 && count == 1) {
+            tiff.putShort((short) value).putShort((short) 0);
+        } else {
+            tiff.putInt(value);
+        }
+    }
+}
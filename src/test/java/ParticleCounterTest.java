@@ -0,0 +1,87 @@
+/**
+ * Regression test of ParticleCounter
+ *
+ * Description: Particle counting (Step 13) must find the same particles as ParticleAnalyzer of the original plugin,
+ * with the same area, centroid, integrated density, bounding box and ROI polygon, in the same order. Compared on the
+ * binary images of generated images with the size limits of the default settings, without limits and with random ones.
+ *
+ * Author: Stepan Helmer
+ *
+ * License: [GNU GENERAL PUBLIC LICENSE Version 3, 29 June 2007]
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ij.ImagePlus;
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import ij.measure.Measurements;
+import ij.measure.ResultsTable;
+import ij.plugin.filter.ParticleAnalyzer;
+import ij.process.ByteProcessor;
+import java.awt.Polygon;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+
+class ParticleCounterTest {
+    static List<ChamberSamples.Sample> samples() {
+        return ChamberSamples.withGrid();
+    }
+
+    @ParameterizedTest
+    @MethodSource("samples")
+    void matchesParticleAnalyzer(ChamberSamples.Sample sample) {
+        AnalysisSettings settings = new AnalysisSettings();
+        settings.grid_size = 100;
+        settings.size_of_par_min = 4;
+        settings.size_of_par_max = 9;
+        ByteProcessor binary = new Binarizer().binarize(sample.masked());
+        double unit_size = (double) settings.grid_size / Math.min(binary.getWidth(), binary.getHeight());
+        double sizer_coef = unit_size * unit_size;
+        Random random = new Random(sample.name.hashCode());
+        double[][] limits = {
+            {(0.5 * settings.size_of_par_min) * (0.5 * settings.size_of_par_min) * 3 / sizer_coef,
+                (0.5 * settings.size_of_par_max) * (0.5 * settings.size_of_par_max) * 3 / sizer_coef},
+            {0, Double.POSITIVE_INFINITY},
+            {random.nextInt(200), 200 + random.nextInt(2000)}};
+        ParticleCounter counter = new ParticleCounter();
+        int particles = 0;
+        for (double[] size : limits) {
+            ImagePlus imp = new ImagePlus("binary", binary.duplicate());
+            ResultsTable rt = new ResultsTable();
+            ParticleAnalyzer analyzer = new ParticleAnalyzer(ParticleAnalyzer.CLEAR_WORKSHEET | ParticleAnalyzer.OVERLAY,
+                    Measurements.AREA | Measurements.CENTROID | Measurements.INTEGRATED_DENSITY | Measurements.RECT,
+                    rt, size[0], size[1], 0.2, 1.0);
+            analyzer.analyze(imp);
+            Overlay overlay = imp.getOverlay();
+            Roi[] rois = overlay == null ? new Roi[0] : overlay.toArray();
+            ParticleCounter.Particles counted = counter.count(binary, size[0], size[1], 0.2, 1.0, true);
+            String name = sample + ", size " + size[0] + " - " + size[1];
+            assertEquals(rt.size(), counted.count, name + ", count");
+            assertEquals(rois.length, counted.rois.length, name + ", ROIs");
+            for (int i = 0; i < counted.count; i++) {
+                String particle = name + ", particle " + (i + 1);
+                assertEquals(rt.getValue("Area", i), counted.area[i], particle + ", area");
+                assertEquals(rt.getValue("X", i), counted.xCentroid[i], 1e-9, particle + ", x");
+                assertEquals(rt.getValue("Y", i), counted.yCentroid[i], 1e-9, particle + ", y");
+                assertEquals(rt.getValue("IntDen", i), counted.intDen[i], 1e-6, particle + ", integrated density");
+                assertEquals(rt.getValue("BX", i), counted.xBase[i], particle + ", x base");
+                assertEquals(rt.getValue("BY", i), counted.yBase[i], particle + ", y base");
+                Polygon expected = rois[i].getPolygon();
+                Polygon polygon = counted.rois[i].getPolygon();
+                assertArrayEquals(Arrays.copyOf(expected.xpoints, expected.npoints),
+                        Arrays.copyOf(polygon.xpoints, polygon.npoints), particle + ", polygon x");
+                assertArrayEquals(Arrays.copyOf(expected.ypoints, expected.npoints),
+                        Arrays.copyOf(polygon.ypoints, polygon.npoints), particle + ", polygon y");
+            }
+            particles += counted.count;
+        }
+        assertTrue(particles > 0, sample + ": no particle counted");
+    }
+}